@@ -0,0 +1,86 @@
+package game;
+
+import java.util.Arrays;
+
+/**
+ * The engine that computes every word of the board with the bit operations of BitField.
+ *
+ * Each row is computed into a spare row first and compared with the old one, and only the
+ * bits that differ are flipped in the field, so the pyramid, the heat map and the row stamps
+ * see the same births and deaths as with the SparseEngine.
+ *
+ * A generation costs about as much as the number of words on the board plus the number of
+ * cells that changed, and nothing but a few rows of sums is kept besides the packed rows.
+ */
+final class DenseEngine implements Engine {
+
+    private final Field field;
+    private final int height, wordsPerRow;
+    private final long lastWordMask;
+    private final long[][] sum0, sum1;
+    private final long[] next;
+
+    DenseEngine(Field field) {
+        this.field = field;
+        height = field.getHeight();
+        wordsPerRow = field.getWordsPerRow();
+        lastWordMask = -1L >>> (-field.getWidth() & 63);
+        sum0 = new long[3][wordsPerRow];
+        sum1 = new long[3][wordsPerRow];
+        next = new long[wordsPerRow];
+    }
+
+    @Override
+    public int update() {
+        if (height == 0 || wordsPerRow == 0) return 0;
+        long[] rows = field.getRows();
+        BitField.horizontalSums(rows, 0, wordsPerRow, sum0[0], sum1[0]);
+        int count = 0;
+        for (int y = 0; y < height; y++) {
+            int above = (y + 2) % 3, mid = y % 3, below = (y + 1) % 3;
+            // Sums of the row below are taken before this row is changed
+            if (y + 1 < height) {
+                BitField.horizontalSums(rows, (y + 1) * wordsPerRow, wordsPerRow, sum0[below], sum1[below]);
+            } else {
+                Arrays.fill(sum0[below], 0);
+                Arrays.fill(sum1[below], 0);
+            }
+            if (y == 0) {
+                Arrays.fill(sum0[above], 0);
+                Arrays.fill(sum1[above], 0);
+            }
+            int offset = y * wordsPerRow;
+            BitField.nextRow(sum0[above], sum1[above], sum0[mid], sum1[mid], sum0[below], sum1[below],
+                    rows, offset, next, 0, wordsPerRow, lastWordMask);
+            for (int w = 0; w < wordsPerRow; w++) {
+                long change = next[w] ^ rows[offset + w];
+                while (change != 0) {
+                    field.flip((w << 6) + Long.numberOfTrailingZeros(change), y);
+                    change &= change - 1;
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void cellChanged(int x, int y, boolean alive) {
+        // Everything is read from the packed rows
+    }
+
+    @Override
+    public void load() {
+        // Nothing is kept between generations
+    }
+
+    @Override
+    public void unload() {
+        // Nothing is kept between generations
+    }
+
+    @Override
+    public long getMemoryNeeded() {
+        return wordsPerRow * 7L * Long.BYTES;
+    }
+}
@@ -0,0 +1,43 @@
+package game;
+
+/**
+ * A way of computing the generations of a Field.
+ *
+ * The packed rows, the population pyramid, the heat map and the row stamps belong to the
+ * Field, so all engines work on the same board and the Field can switch between them after
+ * any generation. Engines change cells only through Field.flip(), which keeps all of that
+ * up to date. Whatever else an engine keeps is rebuilt from the packed rows in load().
+ */
+interface Engine {
+
+    /**
+     * Simulate one generation.
+     *
+     * @return Number of cells that were born or died
+     */
+    int update();
+
+    /**
+     * @param x x-coordinate
+     * @param y y-coordinate
+     * @param alive What the cell was set to
+     *
+     * Called when a cell is set by hand between generations.
+     */
+    void cellChanged(int x, int y, boolean alive);
+
+    /**
+     * Start using the engine on the cells that are in the field right now.
+     */
+    void load();
+
+    /**
+     * Stop using the engine and let go of the memory it keeps.
+     */
+    void unload();
+
+    /**
+     * @return Bytes the engine keeps besides the packed rows while it is in use
+     */
+    long getMemoryNeeded();
+}
@@ -0,0 +1,462 @@
+package game;
+
+import utils.Vec2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Created by Erik Mattfolk on 2017-04-27.
+ * Refactored on 2019-02-16
+ *
+ * This class keeps track of the field which you see in-game.
+ * The field is stored as packed rows, one bit per cell, so that
+ * whole words of cells can be looked at at once.
+ * Births and deaths are also counted in a PopulationPyramid.
+ * For every row the generation it last changed in is kept, so others can
+ * find the rows that changed without comparing the whole board.
+ *
+ * The generations are computed by one of two engines. The SparseEngine only looks at
+ * cells next to the last changes, which is fastest when little happens, but needs two
+ * bytes per cell. The DenseEngine computes every word of the board, which is fastest
+ * when a large part of the board changes every generation, and needs nothing extra.
+ * The field measures how many cells change per generation (the activity) and every
+ * SELECT_INTERVAL generations estimates what a generation would cost with each engine.
+ * With the costs below the DenseEngine wins once about one cell in 500 changes.
+ * It switches when the other engine would be clearly cheaper, and the savings over the
+ * next interval pay for loading it, which for the SparseEngine means counting the
+ * neighbors of every live cell. The SparseEngine is only used while its counts fit in
+ * HEAP_BUDGET of the maximum heap. Switching happens between generations and the
+ * results do not depend on the engine.
+ * Fields with a Rule other than Life use the LifeLikeEngine for range 1, which has a kernel
+ * for every neighborhood, and the LtlEngine for Larger than Life rules.
+ * Generations rules use the GenerationsEngine, which also keeps the state of every cell.
+ * The packed rows still hold only the live cells, so everything that looks at them sees
+ * dying cells as dead.
+ *
+ * Optionally the field keeps a heat map: one byte per cell with the epoch the cell
+ * last changed in, where an epoch is 2^HEAT_SHIFT generations. Only cells that are
+ * born or die are written, and the age of a cell is the current epoch minus its byte.
+ * For a live cell that is how long it has lived, for a dead cell how long ago it died.
+ * To keep the bytes from wrapping around, every HEAT_RANGE - 1 epochs the cells that are
+ * older than HEAT_RANGE are set back to exactly HEAT_RANGE. That is the only time all
+ * cells are touched.
+ *
+ * The field is the Simulation that other programs embed. If a GenerationListener is set,
+ * every flip during a generation is also written to a buffer of births or deaths, which
+ * is handed to the listener at the end of the generation and then reused.
+ */
+public class Field implements Simulation {
+
+    // Heat map
+    public static final int HEAT_RANGE = 128;
+    private static final int HEAT_SHIFT = 2;
+
+    // Engine selection
+    public static final double HEAP_BUDGET = 0.25;
+    private static final int SELECT_INTERVAL = 16;
+    // Rough nanoseconds per change, per word and per live cell loaded
+    private static final double SPARSE_COST = 100;
+    private static final double DENSE_COST = 9;
+    private static final double FLIP_COST = 20;
+    private static final double SPARSE_LOAD_COST = 80;
+    private static final double SWITCH_MARGIN = 1.5;
+
+    private int width, height;
+    private int wordsPerRow;
+    private final Rule rule;
+    private boolean updating;
+    private long[] rows;
+    private PopulationPyramid pyramid;
+    private byte[] heat;
+    private int generation;
+    private int changes;
+    private int[] rowChanged;
+    private int sweptEpoch;
+    private final SparseEngine sparse;
+    private final DenseEngine dense;
+    private final GenerationsEngine generations;
+    private Engine engine;
+    private long activity;
+    private int sinceSelect;
+    private GenerationListener listener;
+    private int[] births, deaths;
+    private int birthCount, deathCount;
+
+    public Field(int width, int height) {
+        this(width, height, Rule.LIFE);
+    }
+
+    /**
+     * @param rule The rule of the field. Rules other than Life always use the LifeLikeEngine,
+     *             the GenerationsEngine or the LtlEngine.
+     */
+    public Field(int width, int height, Rule rule) {
+        this.width = width;
+        this.height = height;
+        this.rule = rule;
+        wordsPerRow = (width + 63) >>> 6;
+        rows = new long[wordsPerRow * height];
+        rowChanged = new int[height];
+        pyramid = new PopulationPyramid(width, height, rows, wordsPerRow);
+        generations = rule.getStates() > 2 ? new GenerationsEngine(this, rule) : null;
+        if (rule.isLife()) {
+            sparse = new SparseEngine(this);
+            dense = new DenseEngine(this);
+            engine = fitsBudget(sparse) ? sparse : dense;
+        } else {
+            sparse = null;
+            dense = null;
+            if (generations != null) {
+                engine = generations;
+            } else {
+                engine = rule.getRange() == 1 ? new LifeLikeEngine(this, rule) : new LtlEngine(this, rule);
+            }
+        }
+        engine.load();
+    }
+
+    /**
+     * Simulate one generation on the field.
+     * Kill and create life according to the rule of the field.
+     */
+    @Override
+    public void update() {
+        updating = true;
+        activity += engine.update();
+        generation++;
+        if (listener != null) {
+            listener.generationComputed(generation, births, birthCount, deaths, deathCount);
+            birthCount = 0;
+            deathCount = 0;
+        }
+        if (heat != null && getEpoch() - sweptEpoch >= HEAT_RANGE - 1) {
+            sweepHeat();
+        }
+        if (sparse != null && ++sinceSelect == SELECT_INTERVAL) {
+            selectEngine();
+        }
+        updating = false;
+    }
+
+    /**
+     * Switch to the engine that was cheapest for the last SELECT_INTERVAL generations,
+     * if it is cheaper by at least SWITCH_MARGIN and the difference pays for loading it.
+     */
+    private void selectEngine() {
+        double changes = (double) activity / sinceSelect;
+        double sparseCost = changes * SPARSE_COST;
+        double denseCost = rows.length * DENSE_COST + changes * FLIP_COST;
+        activity = 0;
+        sinceSelect = 0;
+        if (engine == sparse) {
+            if (!fitsBudget(sparse) || sparseCost > denseCost * SWITCH_MARGIN) {
+                switchEngine(dense);
+            }
+        } else if (fitsBudget(sparse) && denseCost > sparseCost * SWITCH_MARGIN
+                && (denseCost - sparseCost) * SELECT_INTERVAL > getPopulation() * SPARSE_LOAD_COST) {
+            switchEngine(sparse);
+        }
+    }
+
+    private void switchEngine(Engine next) {
+        engine.unload();
+        engine = next;
+        engine.load();
+    }
+
+    private static boolean fitsBudget(Engine engine) {
+        return engine.getMemoryNeeded() <= Runtime.getRuntime().maxMemory() * HEAP_BUDGET;
+    }
+
+    /**
+     * @param x x-coordinate
+     * @param y y-coordinate
+     * @param b boolean determining what to set (x, y) to
+     *
+     * With a Generations rule a dying cell is dead afterwards either way.
+     */
+    @Override
+    public void setTile(int x, int y, boolean b)
+    {
+        if (updating || !withinBounds(x, y)) return;
+        if (getTile(x, y) == b) {
+            if (!b && generations != null) generations.cellChanged(x, y, false);
+            return;
+        }
+        flip(x, y);
+        engine.cellChanged(x, y, b);
+    }
+
+    /**
+     * Turn (x, y) from dead to alive or alive to dead, and keep the pyramid,
+     * heat map and row stamps up to date. This is how engines change cells.
+     */
+    void flip(int x, int y) {
+        int index = y * wordsPerRow + (x >>> 6);
+        rows[index] ^= 1L << x;
+        rowChanged[y] = generation;
+        changes++;
+        boolean alive = (rows[index] >>> x & 1) != 0;
+        pyramid.change(x, y, alive ? 1 : -1);
+        if (heat != null) heat[y * width + x] = (byte) getEpoch();
+        if (listener != null && updating) record(y * width + x, alive);
+    }
+
+    /**
+     * Add a cell to the births or deaths of the generation being computed.
+     */
+    private void record(int cell, boolean born) {
+        if (born) {
+            if (birthCount == births.length) births = Arrays.copyOf(births, births.length * 2);
+            births[birthCount++] = cell;
+        } else {
+            if (deathCount == deaths.length) deaths = Arrays.copyOf(deaths, deaths.length * 2);
+            deaths[deathCount++] = cell;
+        }
+    }
+
+    @Override
+    public void setListener(GenerationListener listener) {
+        this.listener = listener;
+        if (listener != null && births == null) {
+            births = new int[Math.max(16, width)];
+            deaths = new int[Math.max(16, width)];
+        }
+    }
+
+    /**
+     * Goes through setTile() for every cell that differs, so the engine, the pyramid and
+     * the heat map see the same changes as when the cells are set one by one.
+     */
+    @Override
+    public void load(long[] rows) {
+        if (rows.length != this.rows.length) {
+            throw new IllegalArgumentException("Expected " + this.rows.length + " words, got " + rows.length);
+        }
+        long lastWordMask = -1L >>> (-width & 63);
+        for (int i = 0; i < height; i++) {
+            for (int w = 0; w < wordsPerRow; w++) {
+                int index = i * wordsPerRow + w;
+                long change = rows[index] ^ this.rows[index];
+                if (w == wordsPerRow - 1) change &= lastWordMask;
+                while (change != 0) {
+                    int x = (w << 6) + Long.numberOfTrailingZeros(change);
+                    setTile(x, i, (rows[index] >>> x & 1) != 0);
+                    change &= change - 1;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void export(long[] into) {
+        System.arraycopy(rows, 0, into, 0, rows.length);
+    }
+
+    /**
+     * @param enabled Whether the field should keep track of heat
+     *
+     * When turned on all cells start out cold. Turning it off frees the heat map.
+     * Like the cells, the heat map belongs to the thread that updates the field, so this
+     * must be called from that thread between generations, not while a frame is drawn.
+     */
+    public void setHeatEnabled(boolean enabled) {
+        if (!enabled) {
+            heat = null;
+            return;
+        }
+        if (heat != null) return;
+        heat = new byte[width * height];
+        sweptEpoch = getEpoch();
+        Arrays.fill(heat, (byte) (sweptEpoch - HEAT_RANGE));
+    }
+
+    public boolean isHeatEnabled() {
+        return heat != null;
+    }
+
+    /**
+     * @param x x-coordinate
+     * @param y y-coordinate
+     * @return Number of epochs since the cell last changed, at most 2 * HEAT_RANGE - 1.
+     * Anything from HEAT_RANGE and up means the cell has not changed for a long time.
+     */
+    public int getAge(int x, int y) {
+        return (getEpoch() - heat[y * width + x]) & 0xFF;
+    }
+
+    private int getEpoch() {
+        return generation >>> HEAT_SHIFT;
+    }
+
+    /**
+     * Set every cell that is older than HEAT_RANGE to exactly HEAT_RANGE.
+     * Until the next sweep no age can grow past 2 * HEAT_RANGE - 1, so a byte never wraps around.
+     */
+    private void sweepHeat() {
+        int epoch = getEpoch();
+        byte cold = (byte) (epoch - HEAT_RANGE);
+        for (int i = 0; i < heat.length; i++) {
+            if (((epoch - heat[i]) & 0xFF) > HEAT_RANGE) {
+                heat[i] = cold;
+            }
+        }
+        sweptEpoch = epoch;
+    }
+
+    /**
+     * @param x x-coordinate where the shape will be put
+     * @param y y-coordinate where the shape will by put
+     * @param shape The shape to be put on the field
+     */
+    public void putShape(int x, int y, Shape shape) {
+        Vec2 offset = shape.getMiddle();
+        long[] rows = shape.getRows();
+        int words = shape.getWordsPerRow();
+        int left = x - offset.x, top = y - offset.y;
+        int startY = Math.max(0, -top);
+        int endY = Math.min(shape.getHeight(), height - top);
+        for (int i = startY; i < endY; i++) {
+            for (int w = 0; w < words; w++) {
+                long word = rows[i * words + w];
+                while (word != 0) {
+                    setTile(left + (w << 6) + Long.numberOfTrailingZeros(word), top + i, true);
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param x x-coordinate of the top left corner of a marking
+     * @param y y-coordinate of the top left corner of a marking
+     * @param width Width of the marking
+     * @param height Height of the marking
+     * @return Shape with all points inside the marking that contain a life.
+     */
+    public Shape getShape(int x, int y, int width, int height) {
+        ArrayList<Vec2> points = new ArrayList<>();
+        int startX = Math.max(x, 0);
+        int startY = Math.max(y, 0);
+        int endX = Math.min(x + width, this.width);
+        int endY = Math.min(y + height, this.height);
+        for (int i = startY; i < endY; i++) {
+            for (int j = startX; j < endX; j++) {
+                if (getTile(j, i)) {
+                    points.add(new Vec2(j, i));
+                }
+            }
+        }
+
+        return new Shape(points);
+    }
+
+    @Override
+    public boolean getTile(int x, int y) {
+        return (rows[y * wordsPerRow + (x >>> 6)] >>> x & 1) != 0;
+    }
+
+    /**
+     * @return 0 if the cell is dead, 1 if it is alive and from 2 up to the number of states
+     * of the rule minus one while it is dying
+     */
+    public int getState(int x, int y) {
+        if (generations != null) return generations.getState(x, y);
+        return getTile(x, y) ? 1 : 0;
+    }
+
+    /**
+     * @return The packed rows of the dying cells, null unless the rule is a Generations rule.
+     * The array is live and must not be modified.
+     */
+    public long[] getDyingRows() {
+        return generations != null ? generations.getDying() : null;
+    }
+
+    /**
+     * @return The packed rows of the field. The array is live and must not be modified.
+     */
+    public long[] getRows() {
+        return rows;
+    }
+
+    /**
+     * @return Number of generations simulated so far
+     */
+    @Override
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return Number of times a cell has been born or killed so far, by update() or by hand.
+     * If it is the same as before, so is the board.
+     */
+    public int getChangeCount() {
+        return changes;
+    }
+
+    /**
+     * @param y Row of the field
+     * @return The generation a cell in the row was last born or killed in, by update() or by setTile()
+     */
+    public int getRowChanged(int y) {
+        return rowChanged[y];
+    }
+
+    public Rule getRule() {
+        return rule;
+    }
+
+    @Override
+    public int getWordsPerRow() {
+        return wordsPerRow;
+    }
+
+    public PopulationPyramid getPyramid() {
+        return pyramid;
+    }
+
+    @Override
+    public int getPopulation() {
+        return pyramid.getPopulation();
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Set all tiles to False. This clears the field of any life.
+     */
+    public void reset() {
+        for (int i = 0; i < height; i++) {
+            for (int w = 0; w < wordsPerRow; w++) {
+                long word = rows[i * wordsPerRow + w];
+                while (word != 0) {
+                    setTile((w << 6) + Long.numberOfTrailingZeros(word), i, false);
+                    word &= word - 1;
+                }
+            }
+        }
+        if (generations != null) generations.clearDying();
+    }
+
+    /**
+     * @param x x-coordinate
+     * @param y y-coordinate
+     * @return True if (x, y) is on the board, False otherwise
+     *
+     * Ever heard of bounds-checking? This is it.
+     */
+    private boolean withinBounds(int x, int y) {
+        return y >= 0 && y < height && x >= 0 && x < width;
+    }
+}
@@ -0,0 +1,24 @@
+package game;
+
+/**
+ * Gets told which cells were born and which died in every generation of a Simulation.
+ *
+ * Cells are given as indexes y * width + x, in the order they changed. The arrays are reused
+ * for the next generation, so only the first birthCount and deathCount entries are valid
+ * and only until the method returns. Cells set by hand are not included, since whoever
+ * set them already knows.
+ *
+ * With a Generations rule a death is a live cell that starts dying. Dying cells count as
+ * dead, so nothing is reported when they move on to their next state.
+ */
+public interface GenerationListener {
+
+    /**
+     * @param generation The generation that was just computed, counting from 1
+     * @param births Indexes of the cells that were born
+     * @param birthCount Number of births
+     * @param deaths Indexes of the cells that died
+     * @param deathCount Number of deaths
+     */
+    void generationComputed(int generation, int[] births, int birthCount, int[] deaths, int deathCount);
+}
@@ -0,0 +1,139 @@
+package game;
+
+import java.util.Arrays;
+
+/**
+ * The engine for Generations rules, where a live cell that dies goes through a number
+ * of dying states before it is dead again, like Brian's Brain or Star Wars.
+ *
+ * Only live cells count as neighbors, so the neighbor counts come from the packed rows of the
+ * Field with the kernels of the LifeLikeEngine, and the packed rows keep holding exactly the
+ * live cells. Besides them the engine keeps a byte with the state of every cell and packed rows
+ * of the dying cells. A cell in a dying row can not be born, and is the only kind of cell
+ * whose byte is touched when nothing is born or dies, so the cost of a generation stays
+ * close to the cost of the two state rule.
+ *
+ * Dying cells change every generation, so every row with dying cells is stamped when they
+ * move on, and the rows near them are computed like the rows near births and deaths.
+ */
+final class GenerationsEngine extends LifeLikeEngine {
+
+    private final int states;
+    private final byte[] cells;
+    private final long[] dying;
+    // The generation each row last had a dying cell move on to its next state
+    private final int[] rowDecayed;
+
+    GenerationsEngine(Field field, Rule rule) {
+        super(field, rule);
+        states = rule.getStates();
+        cells = new byte[field.getWidth() * height];
+        dying = new long[wordsPerRow * height];
+        rowDecayed = new int[height];
+    }
+
+    @Override
+    boolean isActive(int y, int last) {
+        return rowDecayed[y] >= last || super.isActive(y, last);
+    }
+
+    /**
+     * Births only happen where the cell is neither alive nor dying. Cells that die start dying,
+     * and dying cells move on to their next state or are dead after the last one.
+     */
+    @Override
+    int changeRow(int y, long[] rows) {
+        int offset = y * wordsPerRow, start = y * field.getWidth(), count = 0;
+        for (int w = 0; w < wordsPerRow; w++) {
+            long alive = rows[offset + w], decaying = dying[offset + w];
+            long born = next[w] & ~alive & ~decaying;
+            long died = alive & ~next[w];
+            if (decaying != 0) {
+                long gone = 0;
+                rowDecayed[y] = field.getGeneration();
+                do {
+                    int b = Long.numberOfTrailingZeros(decaying);
+                    int index = start + (w << 6) + b;
+                    if (++cells[index] == (byte) states) {
+                        cells[index] = 0;
+                        gone |= 1L << b;
+                    }
+                    decaying &= decaying - 1;
+                } while (decaying != 0);
+                dying[offset + w] ^= gone;
+            }
+            dying[offset + w] |= died;
+            long change = born | died;
+            while (change != 0) {
+                int b = Long.numberOfTrailingZeros(change);
+                int x = (w << 6) + b;
+                cells[start + x] = (byte) ((born >>> b & 1) != 0 ? 1 : 2);
+                field.flip(x, y);
+                change &= change - 1;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * A cell set by hand is alive or dead, and never dying.
+     */
+    @Override
+    public void cellChanged(int x, int y, boolean alive) {
+        if (!alive && getState(x, y) > 1) rowDecayed[y] = field.getGeneration();
+        cells[y * field.getWidth() + x] = (byte) (alive ? 1 : 0);
+        dying[y * wordsPerRow + (x >>> 6)] &= ~(1L << x);
+    }
+
+    /**
+     * Turn every dying cell dead.
+     */
+    void clearDying() {
+        for (int y = 0; y < height; y++) {
+            for (int w = 0; w < wordsPerRow; w++) {
+                long word = dying[y * wordsPerRow + w];
+                while (word != 0) {
+                    cellChanged((w << 6) + Long.numberOfTrailingZeros(word), y, false);
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 0 if the cell is dead, 1 if it is alive and 2 and up while it is dying
+     */
+    int getState(int x, int y) {
+        return cells[y * field.getWidth() + x] & 0xFF;
+    }
+
+    /**
+     * @return The packed rows of the dying cells, laid out like the rows of the Field
+     */
+    long[] getDying() {
+        return dying;
+    }
+
+    @Override
+    public void load() {
+        // Cells that are alive when the engine starts have state 1
+        Arrays.fill(cells, (byte) 0);
+        Arrays.fill(dying, 0);
+        long[] rows = field.getRows();
+        for (int y = 0; y < height; y++) {
+            for (int w = 0; w < wordsPerRow; w++) {
+                long word = rows[y * wordsPerRow + w];
+                while (word != 0) {
+                    cells[y * field.getWidth() + (w << 6) + Long.numberOfTrailingZeros(word)] = 1;
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+
+    @Override
+    public long getMemoryNeeded() {
+        return super.getMemoryNeeded() + cells.length + dying.length * (long) Long.BYTES + height * (long) Integer.BYTES;
+    }
+}
@@ -0,0 +1,238 @@
+package game;
+
+import utils.Neighborhood;
+
+import java.util.Arrays;
+
+/**
+ * The engine for range 1 rules other than Life itself, in any of the neighborhoods.
+ *
+ * Like the DenseEngine it computes 64 cells at a time with bit operations. Every neighborhood
+ * has its own kernel that adds up exactly its neighbors with a tree of full and half adders,
+ * giving the neighbor count of every cell as bit planes: bit 0 of all 64 counts in one word,
+ * bit 1 in the next and so on. The rule is then turned into the next generation by comparing
+ * the planes with the counts a cell is born or survives with.
+ *
+ * A neighbor to the left of cell x is bit x - 1 of a row, so the row shifted left by one
+ * lines it up with x. The old rows above, at and below the current row are kept in three
+ * buffers, so the row can be changed in place as soon as it is computed.
+ *
+ * Only the rows near the last changes are computed. A row whose cells and neighbors all
+ * stayed the same in the last generation stays the same in this one too, so a row is
+ * skipped unless the row stamps of the Field say that it or a row next to it changed
+ * in the last generation or by hand since.
+ */
+class LifeLikeEngine implements Engine {
+
+    final Field field;
+    private final Neighborhood neighborhood;
+    final int height, wordsPerRow;
+    private final long lastWordMask;
+    // Neighbor counts, not including the cell itself, that are born or survive
+    private final int[] counts;
+    private final boolean[] births, survivals;
+    private long[] above, mid, below;
+    final long[] next;
+
+    LifeLikeEngine(Field field, Rule rule) {
+        this.field = field;
+        neighborhood = rule.getNeighborhood();
+        height = field.getHeight();
+        wordsPerRow = field.getWordsPerRow();
+        lastWordMask = -1L >>> (-field.getWidth() & 63);
+        int most = neighborhood.getSize(1) - 1;
+        births = new boolean[most + 1];
+        survivals = new boolean[most + 1];
+        int used = 0;
+        for (int k = 0; k <= most; k++) {
+            births[k] = (rule.getBirths() >>> k & 1) != 0;
+            survivals[k] = (rule.getSurvivals() >>> k & 1) != 0;
+            if (births[k] || survivals[k]) used++;
+        }
+        counts = new int[used];
+        for (int k = 0, i = 0; k <= most; k++) {
+            if (births[k] || survivals[k]) counts[i++] = k;
+        }
+        above = new long[wordsPerRow];
+        mid = new long[wordsPerRow];
+        below = new long[wordsPerRow];
+        next = new long[wordsPerRow];
+    }
+
+    @Override
+    public int update() {
+        if (height == 0 || wordsPerRow == 0) return 0;
+        long[] rows = field.getRows();
+        int last = field.getGeneration() - 1;
+        Arrays.fill(mid, 0);
+        System.arraycopy(rows, 0, below, 0, wordsPerRow);
+        int count = 0;
+        for (int y = 0; y < height; y++) {
+            long[] oldest = above;
+            above = mid;
+            mid = below;
+            below = oldest;
+            if (y + 1 < height) {
+                System.arraycopy(rows, (y + 1) * wordsPerRow, below, 0, wordsPerRow);
+            } else {
+                Arrays.fill(below, 0);
+            }
+            if (!isActive(y, last)) continue;
+
+            switch (neighborhood) {
+                case MOORE:
+                    mooreRow();
+                    break;
+                case VON_NEUMANN:
+                    vonNeumannRow();
+                    break;
+                default:
+                    hexagonalRow((y & 1) != 0);
+                    break;
+            }
+            next[wordsPerRow - 1] &= lastWordMask;
+            count += changeRow(y, rows);
+        }
+        return count;
+    }
+
+    /**
+     * @param last The generation before the one being computed
+     * @return Whether row y may change in this generation
+     */
+    boolean isActive(int y, int last) {
+        return field.getRowChanged(y) >= last
+                || (y > 0 && field.getRowChanged(y - 1) >= last)
+                || (y + 1 < height && field.getRowChanged(y + 1) >= last);
+    }
+
+    /**
+     * Make row y of the field what the kernel computed into next.
+     *
+     * @return Number of cells that were born or died
+     */
+    int changeRow(int y, long[] rows) {
+        int offset = y * wordsPerRow, count = 0;
+        for (int w = 0; w < wordsPerRow; w++) {
+            long change = next[w] ^ rows[offset + w];
+            while (change != 0) {
+                field.flip((w << 6) + Long.numberOfTrailingZeros(change), y);
+                change &= change - 1;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return Word w of row shifted so that every cell lines up with its left neighbor
+     */
+    private static long left(long[] row, int w) {
+        return row[w] << 1 | (w > 0 ? row[w - 1] >>> 63 : 0);
+    }
+
+    /**
+     * @return Word w of row shifted so that every cell lines up with its right neighbor
+     */
+    private long right(long[] row, int w) {
+        return row[w] >>> 1 | (w + 1 < wordsPerRow ? row[w + 1] << 63 : 0);
+    }
+
+    /**
+     * Eight neighbors: three full adders of the ones, then the four carries, which are worth two.
+     */
+    private void mooreRow() {
+        for (int w = 0; w < wordsPerRow; w++) {
+            long a = left(above, w), b = above[w], c = right(above, w);
+            long d = left(mid, w), e = right(mid, w);
+            long f = left(below, w), g = below[w], h = right(below, w);
+
+            long s1 = a ^ b ^ c, c1 = (a & b) | (c & (a ^ b));
+            long s2 = f ^ g ^ h, c2 = (f & g) | (h & (f ^ g));
+            long s3 = d ^ e, c3 = d & e;
+            long ones = s1 ^ s2 ^ s3, c4 = (s1 & s2) | (s3 & (s1 ^ s2));
+
+            // Four carries worth two each: two half adders, then add their carries
+            long x = c1 ^ c2, xCarry = c1 & c2;
+            long z = c3 ^ c4, zCarry = c3 & c4;
+            long twos = x ^ z, twosCarry = x & z;
+            long fours = xCarry ^ zCarry ^ twosCarry;
+            long eights = xCarry & zCarry;
+            next[w] = apply(mid[w], ones, twos, fours, eights);
+        }
+    }
+
+    /**
+     * Four neighbors: the cells above, below, left and right, with two half adders.
+     */
+    private void vonNeumannRow() {
+        for (int w = 0; w < wordsPerRow; w++) {
+            long n = above[w], s = below[w];
+            long e = left(mid, w), f = right(mid, w);
+            long x = n ^ s, xCarry = n & s;
+            long z = e ^ f, zCarry = e & f;
+            long ones = x ^ z, carry = x & z;
+            long twos = xCarry ^ zCarry ^ carry;
+            long fours = xCarry & zCarry;
+            next[w] = apply(mid[w], ones, twos, fours, 0);
+        }
+    }
+
+    /**
+     * Six neighbors: left and right, and two cells in each of the rows above and below.
+     * Odd rows are drawn half a cell to the right, so they touch the cell straight above and
+     * the one to its right, while even rows touch the one straight above and the one to its left.
+     */
+    private void hexagonalRow(boolean odd) {
+        for (int w = 0; w < wordsPerRow; w++) {
+            long a = above[w], b = odd ? right(above, w) : left(above, w);
+            long c = below[w], d = odd ? right(below, w) : left(below, w);
+            long e = left(mid, w), f = right(mid, w);
+
+            long s1 = a ^ b ^ c, c1 = (a & b) | (c & (a ^ b));
+            long s2 = d ^ e ^ f, c2 = (d & e) | (f & (d ^ e));
+            long ones = s1 ^ s2, c3 = s1 & s2;
+            long twos = c1 ^ c2 ^ c3;
+            long fours = (c1 & c2) | (c3 & (c1 ^ c2));
+            next[w] = apply(mid[w], ones, twos, fours, 0);
+        }
+    }
+
+    /**
+     * @param alive The cells of the word
+     * @param ones Bit 0 of the neighbor count of every cell, twos, fours and eights the next bits
+     * @return The cells of the word in the next generation
+     */
+    private long apply(long alive, long ones, long twos, long fours, long eights) {
+        long born = 0, kept = 0;
+        for (int k : counts) {
+            long equal = ((k & 1) != 0 ? ones : ~ones)
+                    & ((k & 2) != 0 ? twos : ~twos)
+                    & ((k & 4) != 0 ? fours : ~fours)
+                    & ((k & 8) != 0 ? eights : ~eights);
+            if (births[k]) born |= equal;
+            if (survivals[k]) kept |= equal;
+        }
+        return (born & ~alive) | (kept & alive);
+    }
+
+    @Override
+    public void cellChanged(int x, int y, boolean alive) {
+        // Everything is read from the packed rows
+    }
+
+    @Override
+    public void load() {
+        // Nothing is kept between generations
+    }
+
+    @Override
+    public void unload() {
+        // Nothing is kept between generations
+    }
+
+    @Override
+    public long getMemoryNeeded() {
+        return wordsPerRow * 4L * Long.BYTES;
+    }
+}
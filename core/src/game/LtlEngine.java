@@ -0,0 +1,308 @@
+package game;
+
+import utils.Neighborhood;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The engine for Larger than Life rules, where a cell may have hundreds of neighbors.
+ *
+ * Counting the neighbors of every cell one by one would cost (2r + 1)^2 per cell. Instead the
+ * counts are rolled along: for the Moore neighborhood every band keeps the number of live
+ * cells in each column of the 2r + 1 rows around the current row, which changes by one row
+ * added and one removed per row. Sliding along the row then adds one column and removes one
+ * per cell. Together with a summed-area table this is the same trick, but only a single row
+ * of column sums is kept.
+ *
+ * The diamond of the von Neumann neighborhood has diagonal sides, so instead every band keeps
+ * running sums along both diagonals for the 2r + 2 rows it needs. Moving one cell to the right
+ * adds two diagonal edges of the diamond and removes two, and each edge is the difference of
+ * two running sums. Either way the cost per cell does not depend on the range.
+ *
+ * The rows are split into bands that are computed in parallel on the common pool. Every band
+ * writes its part of the next generation into a second board, and afterwards only the cells
+ * that differ are flipped in the field. Rows where the whole neighborhood is empty are skipped,
+ * unless the rule gives birth with no neighbors at all.
+ */
+final class LtlEngine implements Engine {
+
+    private static final int BANDS_PER_CORE = 4;
+
+    private final Field field;
+    private final int width, height, wordsPerRow, range;
+    private final boolean vonNeumann, emptyStaysEmpty;
+    private final int birthMin, birthMax, surviveMin, surviveMax;
+    private final long[] next;
+    private final Band[] bands;
+    private long[] rows;
+
+    LtlEngine(Field field, Rule rule) {
+        this.field = field;
+        width = field.getWidth();
+        height = field.getHeight();
+        wordsPerRow = field.getWordsPerRow();
+        range = rule.getRange();
+        vonNeumann = rule.getNeighborhood() == Neighborhood.VON_NEUMANN;
+        emptyStaysEmpty = rule.getBirthMin() > 0 || rule.getBirthMax() < rule.getBirthMin();
+        // Counts below always include the cell itself
+        int self = rule.countsSelf() ? 0 : 1;
+        birthMin = rule.getBirthMin();
+        birthMax = rule.getBirthMax();
+        surviveMin = rule.getSurviveMin() + self;
+        surviveMax = rule.getSurviveMax() + self;
+        next = new long[wordsPerRow * height];
+
+        int window = 2 * range + 1;
+        int count = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() * BANDS_PER_CORE,
+                height / (4 * window)));
+        bands = new Band[count];
+        for (int i = 0; i < count; i++) {
+            bands[i] = new Band((int) ((long) height * i / count), (int) ((long) height * (i + 1) / count));
+        }
+    }
+
+    @Override
+    public int update() {
+        rows = field.getRows();
+        for (Band band : bands) {
+            band.reinitialize();
+        }
+        ForkJoinTask.invokeAll(bands);
+        int count = 0;
+        for (int i = 0; i < next.length; i++) {
+            long change = next[i] ^ rows[i];
+            if (change == 0) continue;
+            int y = i / wordsPerRow, w = i - y * wordsPerRow;
+            while (change != 0) {
+                field.flip((w << 6) + Long.numberOfTrailingZeros(change), y);
+                change &= change - 1;
+                count++;
+            }
+        }
+        rows = null;
+        return count;
+    }
+
+    @Override
+    public void cellChanged(int x, int y, boolean alive) {
+        // Everything is read from the packed rows
+    }
+
+    @Override
+    public void load() {
+        // Nothing is kept between generations
+    }
+
+    @Override
+    public void unload() {
+        // Nothing is kept between generations
+    }
+
+    @Override
+    public long getMemoryNeeded() {
+        long perBand = vonNeumann ? 2L * (2 * range + 2) * (width + 3 * range + 2) : width + 2 * range + 1;
+        return next.length * (long) Long.BYTES + bands.length * perBand * Integer.BYTES;
+    }
+
+    private int getRowPopulation(int y) {
+        if (y < 0 || y >= height) return 0;
+        int population = 0;
+        for (int w = 0; w < wordsPerRow; w++) {
+            population += Long.bitCount(rows[y * wordsPerRow + w]);
+        }
+        return population;
+    }
+
+    /**
+     * @param count Live cells in the neighborhood, the cell included
+     * @return The word with bit b of the cell set if the cell lives on
+     */
+    private long nextBit(long word, int b, int count) {
+        boolean alive = (word >>> b & 1) != 0;
+        boolean lives = alive ? count >= surviveMin && count <= surviveMax : count >= birthMin && count <= birthMax;
+        return lives ? 1L << b : 0;
+    }
+
+    /**
+     * The rows from top to bottom, with the sums it rolls along.
+     */
+    private class Band extends RecursiveAction {
+        private final int top, bottom;
+        // Moore: live cells of each column in the window, padded with range empty columns on each side
+        private int[] columns;
+        // von Neumann: running sums down and to the right, and down and to the left, per row of the ring
+        private int[][] downRight, downLeft;
+        private int[] rightTop, rightMid, rightBottom, leftTop, leftMid, leftBottom;
+
+        Band(int top, int bottom) {
+            this.top = top;
+            this.bottom = bottom;
+        }
+
+        @Override
+        protected void compute() {
+            if (vonNeumann) computeVonNeumann();
+            else computeMoore();
+        }
+
+        private void computeMoore() {
+            if (columns == null) columns = new int[width + 2 * range + 1];
+            Arrays.fill(columns, 0);
+            int windowPopulation = 0;
+            for (int y = top - range; y <= top + range; y++) {
+                windowPopulation += addRow(y, 1);
+            }
+            int side = 2 * range;
+            for (int y = top; y < bottom; y++) {
+                int offset = y * wordsPerRow;
+                if (windowPopulation == 0 && emptyStaysEmpty) {
+                    Arrays.fill(next, offset, offset + wordsPerRow, 0);
+                } else {
+                    // Column x + range is column x of the board, so the window of x is columns x to x + 2r
+                    int count = 0;
+                    for (int i = 0; i < side; i++) {
+                        count += columns[i];
+                    }
+                    for (int w = 0; w < wordsPerRow; w++) {
+                        long word = rows[offset + w], result = 0;
+                        int end = Math.min(64, width - (w << 6));
+                        for (int b = 0; b < end; b++) {
+                            int x = (w << 6) + b;
+                            count += columns[x + side];
+                            result |= nextBit(word, b, count);
+                            count -= columns[x];
+                        }
+                        next[offset + w] = result;
+                    }
+                }
+                windowPopulation -= addRow(y - range, -1);
+                windowPopulation += addRow(y + range + 1, 1);
+            }
+        }
+
+        /**
+         * Add change to the column sums for every live cell in row y.
+         *
+         * @return The population of the row
+         */
+        private int addRow(int y, int change) {
+            if (y < 0 || y >= height) return 0;
+            int population = 0;
+            for (int w = 0; w < wordsPerRow; w++) {
+                long word = rows[y * wordsPerRow + w];
+                while (word != 0) {
+                    columns[(w << 6) + Long.numberOfTrailingZeros(word) + range] += change;
+                    word &= word - 1;
+                    population++;
+                }
+            }
+            return population;
+        }
+
+        private void computeVonNeumann() {
+            int ringSize = 2 * range + 2, padded = width + 3 * range + 2;
+            if (downRight == null) {
+                downRight = new int[ringSize][padded];
+                downLeft = new int[ringSize][padded];
+            }
+            // The ring holds rows y - r - 1 to y + r, and starts out with the sums of row top - r - 1 alone
+            for (int y = top - range - 1; y <= top + range; y++) {
+                diagonalRow(y, y == top - range - 1);
+            }
+            int windowPopulation = 0;
+            for (int y = top - range; y <= top + range; y++) {
+                windowPopulation += getRowPopulation(y);
+            }
+            for (int y = top; y < bottom; y++) {
+                int offset = y * wordsPerRow;
+                if (windowPopulation == 0 && emptyStaysEmpty) {
+                    Arrays.fill(next, offset, offset + wordsPerRow, 0);
+                } else {
+                    diamondRow(y, offset);
+                }
+                windowPopulation -= getRowPopulation(y - range);
+                windowPopulation += getRowPopulation(y + range + 1);
+                if (y + 1 < bottom) diagonalRow(y + range + 1, false);
+            }
+        }
+
+        /**
+         * Compute the running diagonal sums of row y into its place in the ring.
+         * Padded column x + 2r + 1 is column x of the board.
+         */
+        private void diagonalRow(int y, boolean first) {
+            int padded = downRight[0].length, pad = 2 * range + 1;
+            int[] right = ringRow(downRight, y), left = ringRow(downLeft, y);
+            if (first) {
+                Arrays.fill(right, 0);
+                Arrays.fill(left, 0);
+            } else {
+                int[] rightAbove = ringRow(downRight, y - 1), leftAbove = ringRow(downLeft, y - 1);
+                right[0] = 0;
+                System.arraycopy(rightAbove, 0, right, 1, padded - 1);
+                System.arraycopy(leftAbove, 1, left, 0, padded - 1);
+                left[padded - 1] = 0;
+            }
+            if (y < 0 || y >= height) return;
+            for (int w = 0; w < wordsPerRow; w++) {
+                long word = rows[y * wordsPerRow + w];
+                while (word != 0) {
+                    int px = (w << 6) + Long.numberOfTrailingZeros(word) + pad;
+                    right[px]++;
+                    left[px]++;
+                    word &= word - 1;
+                }
+            }
+        }
+
+        private int[] ringRow(int[][] ring, int y) {
+            return ring[Math.floorMod(y, ring.length)];
+        }
+
+        /**
+         * Each edge of the diamond is a diagonal run of cells, and the sum of a run
+         * is the running sum at its last cell minus the running sum just before its first cell.
+         * The diamond starts at x = -r - 1, where it only covers dead cells, and is moved along from there.
+         */
+        private void diamondRow(int y, int offset) {
+            int r = range, pad = 2 * range + 1;
+            rightTop = ringRow(downRight, y - r - 1);
+            rightMid = ringRow(downRight, y);
+            rightBottom = ringRow(downRight, y + r);
+            leftTop = ringRow(downLeft, y - r - 1);
+            leftMid = ringRow(downLeft, y);
+            leftBottom = ringRow(downLeft, y + r);
+            int count = 0;
+            for (int px = pad - r - 1; px < pad; px++) {
+                count += move(px);
+            }
+            for (int w = 0; w < wordsPerRow; w++) {
+                long word = rows[offset + w], result = 0;
+                int end = Math.min(64, width - (w << 6));
+                for (int b = 0; b < end; b++) {
+                    int px = (w << 6) + b + pad;
+                    result |= nextBit(word, b, count);
+                    count += move(px);
+                }
+                next[offset + w] = result;
+            }
+        }
+
+        /**
+         * @return How the count changes when the diamond moves from x to x + 1, with px the padded column of x
+         *
+         * The diamond gains the edges from (x + 1, y - r) down and right to (x + r + 1, y) and from
+         * (x + r, y + 1) down and left to (x + 1, y + r), and loses the edges from (x, y - r) down and
+         * left to (x - r, y) and from (x - r + 1, y + 1) down and right to (x, y + r).
+         */
+        private int move(int px) {
+            int r = range;
+            return rightMid[px + r + 1] - rightTop[px]
+                    + leftBottom[px + 1] - leftMid[px + r + 1]
+                    - leftMid[px - r] + leftTop[px + 1]
+                    - rightBottom[px] + rightMid[px - r];
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package game;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * A BitField whose packed rows live outside the Java heap, for boards too large for arrays.
+ *
+ * The rows are split over segments of at most MAX_SEGMENT_BYTES, each a direct ByteBuffer,
+ * or a part of a memory mapped file so the operating system can page the board in and out.
+ * A segment always holds whole rows, and a cell is found with long arithmetic, so the
+ * number of cells is not limited by the size of an int. A 200000x200000 board is 5 GB.
+ * The garbage collector never scans or moves the board.
+ *
+ * A generation is computed with the same kernel as BitField. The rows are split into
+ * bands that are computed in parallel, each band copying its rows one at a time into
+ * small arrays on the heap. The rows just outside a band are copied before any band
+ * starts, since the neighboring band writes over them.
+ *
+ * The memory is released by close(), not by the garbage collector. The field can not
+ * be used after that.
+ *
+ * Only Conway's Life (B3/S23) is computed, like BitField. Run it from the command line
+ * with OffHeapRun.
+ */
+public class OffHeapField implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(OffHeapField.class.getName());
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+    private static final int BANDS_PER_CORE = 2;
+
+    private int width, height;
+    private int wordsPerRow;
+    private long lastWordMask;
+    private int rowsPerSegment;
+    private ByteBuffer[] buffers;
+    private LongBuffer[] segments;
+    private FileChannel channel;
+    private Band[] bands;
+    private long population;
+    private boolean closed;
+
+    /**
+     * @param width Width of the board
+     * @param height Height of the board
+     *
+     * Create a board in direct memory with every cell dead.
+     */
+    public OffHeapField(int width, int height) {
+        createLayout(width, height);
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.allocateDirect(getSegmentBytes(i));
+        }
+        createSegments();
+    }
+
+    /**
+     * @param width Width of the board
+     * @param height Height of the board
+     * @param file File to keep the board in. A new file starts with every cell dead,
+     *             an existing file of a board with the same size is continued.
+     * @throws IOException If the file is not empty and does not have the size of a width x height board
+     */
+    public OffHeapField(int width, int height, Path file) throws IOException {
+        createLayout(width, height);
+        channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean existing = channel.size() > 0;
+        long expected = 8L * wordsPerRow * height;
+        if (existing && channel.size() != expected) {
+            long size = channel.size();
+            channel.close();
+            throw new IOException(file + " has " + size + " bytes, a " + width + "x" + height
+                    + " board needs " + expected);
+        }
+        long position = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, getSegmentBytes(i));
+            position += getSegmentBytes(i);
+        }
+        createSegments();
+        if (existing) {
+            population = countPopulation();
+        }
+    }
+
+    private void createLayout(int width, int height) {
+        this.width = width;
+        this.height = height;
+        wordsPerRow = (width + 63) >>> 6;
+        lastWordMask = -1L >>> (-width & 63);
+        rowsPerSegment = (int) Math.max(1, MAX_SEGMENT_BYTES / (8L * Math.max(1, wordsPerRow)));
+        buffers = new ByteBuffer[Math.max(1, (height + rowsPerSegment - 1) / rowsPerSegment)];
+        segments = new LongBuffer[buffers.length];
+    }
+
+    private int getSegmentBytes(int segment) {
+        int rows = Math.min(rowsPerSegment, height - segment * rowsPerSegment);
+        return 8 * wordsPerRow * Math.max(0, rows);
+    }
+
+    private void createSegments() {
+        for (int i = 0; i < buffers.length; i++) {
+            segments[i] = buffers[i].order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+        int count = Math.max(1, Math.min(height, Runtime.getRuntime().availableProcessors() * BANDS_PER_CORE));
+        bands = new Band[count];
+        for (int i = 0; i < count; i++) {
+            bands[i] = new Band((int) ((long) height * i / count), (int) ((long) height * (i + 1) / count));
+        }
+        population = 0;
+    }
+
+    /**
+     * Simulate one generation on the field.
+     */
+    public void update() {
+        checkOpen();
+        for (int i = 0; i < bands.length; i++) {
+            Band band = bands[i];
+            if (band.top > 0) band.read(band.top - 1, band.rowAbove);
+            if (band.bottom < height) band.read(band.bottom, band.rowBelow);
+        }
+        population = IntStream.range(0, bands.length).parallel().mapToLong(i -> bands[i].update()).sum();
+    }
+
+    /**
+     * @param x x-coordinate
+     * @param y y-coordinate
+     * @param b boolean determining what to set (x, y) to
+     */
+    public void setTile(int x, int y, boolean b) {
+        checkOpen();
+        if (x < 0 || x >= width || y < 0 || y >= height || getTile(x, y) == b) return;
+        LongBuffer segment = segments[y / rowsPerSegment];
+        int index = (y % rowsPerSegment) * wordsPerRow + (x >>> 6);
+        segment.put(index, segment.get(index) ^ 1L << x);
+        population += b ? 1 : -1;
+    }
+
+    public boolean getTile(int x, int y) {
+        checkOpen();
+        long word = segments[y / rowsPerSegment].get((y % rowsPerSegment) * wordsPerRow + (x >>> 6));
+        return (word >>> x & 1) != 0;
+    }
+
+    /**
+     * @param y Row to overwrite
+     * @param row getWordsPerRow() packed words with the new cells of the row
+     */
+    public void writeRow(int y, long[] row) {
+        checkOpen();
+        LongBuffer segment = segments[y / rowsPerSegment];
+        int offset = (y % rowsPerSegment) * wordsPerRow;
+        for (int w = 0; w < wordsPerRow; w++) {
+            long word = w == wordsPerRow - 1 ? row[w] & lastWordMask : row[w];
+            population += Long.bitCount(word) - Long.bitCount(segment.get(offset + w));
+            segment.put(offset + w, word);
+        }
+    }
+
+    /**
+     * @param y Row to read
+     * @param into Array of at least getWordsPerRow() longs that gets the packed row
+     */
+    public void readRow(int y, long[] into) {
+        checkOpen();
+        LongBuffer segment = segments[y / rowsPerSegment].duplicate();
+        segment.position((y % rowsPerSegment) * wordsPerRow);
+        segment.get(into, 0, wordsPerRow);
+    }
+
+    private long countPopulation() {
+        long count = 0;
+        for (LongBuffer segment : segments) {
+            for (int i = 0; i < segment.capacity(); i++) {
+                count += Long.bitCount(segment.get(i));
+            }
+        }
+        return count;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getWordsPerRow() {
+        return wordsPerRow;
+    }
+
+    public long getPopulation() {
+        return population;
+    }
+
+    private void checkOpen() {
+        if (closed) throw new IllegalStateException("The field has been closed");
+    }
+
+    /**
+     * Release the memory of the board, and write it to the file if there is one.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        for (ByteBuffer buffer : buffers) {
+            release(buffer);
+        }
+        segments = null;
+        buffers = null;
+        bands = null;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Free a direct or mapped buffer right away, if Cleaner found a way to.
+     * Otherwise the buffer is freed whenever it is collected.
+     */
+    private static void release(ByteBuffer buffer) {
+        if (Cleaner.INVOKE_CLEANER == null) return;
+        try {
+            Cleaner.INVOKE_CLEANER.invoke(Cleaner.UNSAFE, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not release buffer: " + e);
+        }
+    }
+
+    /**
+     * The only way to free a buffer without waiting for the garbage collector is
+     * sun.misc.Unsafe.invokeCleaner. Unsafe is in the jdk.unsupported module, which the rest
+     * of core does not need, so it is looked up by reflection once, the first time a field is
+     * closed. If the module is not there the fields still work, they just keep their memory longer.
+     */
+    private static final class Cleaner {
+        static final Object UNSAFE;
+        static final Method INVOKE_CLEANER;
+
+        static {
+            Object unsafe = null;
+            Method invokeCleaner = null;
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                java.lang.reflect.Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                unsafe = field.get(null);
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOGGER.log(Level.INFO, "Off-heap memory is freed by the garbage collector, not on close: " + e);
+            }
+            UNSAFE = unsafe;
+            INVOKE_CLEANER = invokeCleaner;
+        }
+    }
+
+    /**
+     * The rows from top to bottom, with its own views of the segments and its own row arrays.
+     */
+    private class Band {
+        final int top, bottom;
+        final LongBuffer[] views;
+        final long[] rowAbove, rowBelow, out;
+        final long[][] rows, sum0, sum1;
+        final long[] zeros;
+
+        Band(int top, int bottom) {
+            this.top = top;
+            this.bottom = bottom;
+            views = new LongBuffer[segments.length];
+            for (int i = 0; i < views.length; i++) {
+                views[i] = segments[i].duplicate();
+            }
+            rowAbove = new long[wordsPerRow];
+            rowBelow = new long[wordsPerRow];
+            out = new long[wordsPerRow];
+            rows = new long[3][wordsPerRow];
+            sum0 = new long[3][wordsPerRow];
+            sum1 = new long[3][wordsPerRow];
+            zeros = new long[wordsPerRow];
+        }
+
+        /**
+         * Same as BitField.update() for the rows of the band, with the rows outside taken from the copies.
+         *
+         * @return Number of live cells in the band after the generation
+         */
+        long update() {
+            if (top == bottom || wordsPerRow == 0) return 0;
+            long count = 0;
+            read(top, rows[0]);
+            BitField.horizontalSums(rows[0], 0, wordsPerRow, sum0[0], sum1[0]);
+            sums(top > 0 ? rowAbove : zeros, 2);
+            for (int y = top; y < bottom; y++) {
+                int i = y - top;
+                int above = (i + 2) % 3, mid = i % 3, below = (i + 1) % 3;
+                if (y + 1 < bottom) {
+                    read(y + 1, rows[below]);
+                    sums(rows[below], below);
+                } else {
+                    sums(y + 1 < height ? rowBelow : zeros, below);
+                }
+                count += BitField.nextRow(sum0[above], sum1[above], sum0[mid], sum1[mid], sum0[below], sum1[below],
+                        rows[mid], 0, out, 0, wordsPerRow, lastWordMask);
+                write(y, out);
+            }
+            return count;
+        }
+
+        private void sums(long[] row, int slot) {
+            BitField.horizontalSums(row, 0, wordsPerRow, sum0[slot], sum1[slot]);
+        }
+
+        void read(int y, long[] into) {
+            LongBuffer view = views[y / rowsPerSegment];
+            view.position((y % rowsPerSegment) * wordsPerRow);
+            view.get(into, 0, wordsPerRow);
+        }
+
+        private void write(int y, long[] row) {
+            LongBuffer view = views[y / rowsPerSegment];
+            view.position((y % rowsPerSegment) * wordsPerRow);
+            view.put(row, 0, wordsPerRow);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package game;
+
+/**
+ * Live cell counts of square blocks of the field, at a few block sizes.
+ *
+ * Level 0 counts 8x8 blocks, level 1 64x64 blocks and level 2 512x512 blocks.
+ * The counts are kept up to date one cell at a time by the Field, for every birth
+ * and death, so reading them never has to look at the cells. This makes zoomed out
+ * drawing and questions like "how many cells live in this area" cost about as much
+ * as the number of blocks that are looked at.
+ */
+public class PopulationPyramid {
+
+    private static final int LEVELS = 3;
+    private static final int LEVEL_SHIFT = 3;
+
+    private final int width, height;
+    private final int[] columns;
+    private final int[][] counts;
+    private final long[] rows;
+    private final int wordsPerRow;
+    private int population;
+
+    /**
+     * @param width Width of the field
+     * @param height Height of the field
+     * @param rows Packed rows of the field, used for the cells at the edges of a region
+     * @param wordsPerRow Number of longs in each row
+     */
+    public PopulationPyramid(int width, int height, long[] rows, int wordsPerRow) {
+        this.width = width;
+        this.height = height;
+        this.rows = rows;
+        this.wordsPerRow = wordsPerRow;
+        columns = new int[LEVELS];
+        counts = new int[LEVELS][];
+        for (int level = 0; level < LEVELS; level++) {
+            int size = getBlockSize(level);
+            columns[level] = (width + size - 1) / size;
+            counts[level] = new int[columns[level] * ((height + size - 1) / size)];
+        }
+        population = 0;
+    }
+
+    /**
+     * @param x x-coordinate of the cell that changed
+     * @param y y-coordinate of the cell that changed
+     * @param change 1 for a birth, -1 for a death
+     */
+    public void change(int x, int y, int change) {
+        population += change;
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = LEVEL_SHIFT * (level + 1);
+            counts[level][(y >>> shift) * columns[level] + (x >>> shift)] += change;
+        }
+    }
+
+    /**
+     * @param level Level of the block
+     * @param blockX x-coordinate of the block, in blocks
+     * @param blockY y-coordinate of the block, in blocks
+     * @return Number of live cells in the block
+     */
+    public int getCount(int level, int blockX, int blockY) {
+        return counts[level][blockY * columns[level] + blockX];
+    }
+
+    /**
+     * @param x0 Left edge of the region, inclusive
+     * @param y0 Top edge of the region, inclusive
+     * @param x1 Right edge of the region, exclusive
+     * @param y1 Bottom edge of the region, exclusive
+     * @return Number of live cells in the region
+     *
+     * The region is split into whole blocks of the largest level that fit and
+     * edge strips that are counted on the next level down, and so on to single cells.
+     */
+    public int count(int x0, int y0, int x1, int y1) {
+        x0 = Math.max(0, x0);
+        y0 = Math.max(0, y0);
+        x1 = Math.min(width, x1);
+        y1 = Math.min(height, y1);
+        if (x0 >= x1 || y0 >= y1) return 0;
+        return count(LEVELS - 1, x0, y0, x1, y1);
+    }
+
+    private int count(int level, int x0, int y0, int x1, int y1) {
+        if (x0 >= x1 || y0 >= y1) return 0;
+        if (level < 0) return countCells(x0, y0, x1, y1);
+
+        int size = getBlockSize(level);
+        int bx0 = (x0 + size - 1) / size, by0 = (y0 + size - 1) / size;
+        int bx1 = x1 / size, by1 = y1 / size;
+        if (bx0 >= bx1 || by0 >= by1) {
+            return count(level - 1, x0, y0, x1, y1);
+        }
+
+        int sum = 0;
+        for (int by = by0; by < by1; by++) {
+            for (int bx = bx0; bx < bx1; bx++) {
+                sum += counts[level][by * columns[level] + bx];
+            }
+        }
+        int innerX0 = bx0 * size, innerY0 = by0 * size;
+        int innerX1 = bx1 * size, innerY1 = by1 * size;
+        sum += count(level - 1, x0, y0, x1, innerY0);
+        sum += count(level - 1, x0, innerY1, x1, y1);
+        sum += count(level - 1, x0, innerY0, innerX0, innerY1);
+        sum += count(level - 1, innerX1, innerY0, x1, innerY1);
+        return sum;
+    }
+
+    /**
+     * Count single cells with the packed rows, a word at a time.
+     */
+    private int countCells(int x0, int y0, int x1, int y1) {
+        int sum = 0;
+        int firstWord = x0 >>> 6, lastWord = (x1 - 1) >>> 6;
+        for (int y = y0; y < y1; y++) {
+            for (int w = firstWord; w <= lastWord; w++) {
+                long word = rows[y * wordsPerRow + w];
+                if (w == firstWord) word &= -1L << x0;
+                if (w == lastWord) word &= -1L >>> (63 - ((x1 - 1) & 63));
+                sum += Long.bitCount(word);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @param cells Side of a square of cells
+     * @return The highest level whose blocks are no bigger than the square, -1 if there is none
+     */
+    public int getLevelFor(int cells) {
+        int level = -1;
+        while (level + 1 < LEVELS && getBlockSize(level + 1) <= cells) {
+            level++;
+        }
+        return level;
+    }
+
+    public int getBlockSize(int level) {
+        return 1 << (LEVEL_SHIFT * (level + 1));
+    }
+
+    public int getColumns(int level) {
+        return columns[level];
+    }
+
+    public int getLevels() {
+        return LEVELS;
+    }
+
+    public int getPopulation() {
+        return population;
+    }
+}
@@ -0,0 +1,29 @@
+package game;
+
+/**
+ * The two inner loops of the bit-parallel engines: the horizontal sums of a row, and the next
+ * generation of a row from the sums of the rows above, at and below it. See BitField for how they work.
+ *
+ * ScalarKernel computes one word at a time and runs everywhere. VectorKernel, in the vector module,
+ * computes several words at once with the incubating Vector API and is only used when the JVM was
+ * started with --add-modules jdk.incubator.vector. BitField.KERNEL is the one that is used.
+ */
+interface RowKernel {
+
+    /**
+     * @param row Array with the row
+     * @param offset Index of the first word of the row
+     * @param words Number of words in the row
+     * @param ones Gets the 1 bit of the sum for every cell
+     * @param twos Gets the 2 bit of the sum for every cell
+     */
+    void horizontalSums(long[] row, int offset, int words, long[] ones, long[] twos);
+
+    /**
+     * center and out may be the same row, every word is read before it is written.
+     *
+     * @return Number of live cells in the new row
+     */
+    int nextRow(long[] above0, long[] above1, long[] mid0, long[] mid1, long[] below0, long[] below1,
+                long[] center, int centerOffset, long[] out, int outOffset, int words, long lastWordMask);
+}
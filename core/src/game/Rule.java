@@ -0,0 +1,352 @@
+package game;
+
+import utils.Neighborhood;
+
+/**
+ * An immutable Larger than Life rule: which cells count as neighbors, and for which
+ * neighbor counts a dead cell is born and a live cell survives.
+ *
+ * The neighbors of a cell are the cells within range of it, in a square (Moore), in a
+ * diamond (von Neumann) or, for range 1 only, in a hexagon. A rule with range 1 is one of
+ * the usual life-like rules, and any set of counts can give birth or survival, like in
+ * HighLife B36/S23. Larger ranges have intervals of counts, as in Larger than Life, and the
+ * count may include the cell itself. An interval may be empty, then no count gives birth or survival.
+ * A range 1 rule never counts the cell itself: M1 is stored as the same rule with the survival
+ * counts one lower.
+ *
+ * Range 1 rules may have more than two states, like the Generations rules of Golly.
+ * State 0 is dead and 1 alive, and only live cells count as neighbors. A live cell that
+ * does not survive starts dying: it goes through the states 2, 3 and so on, one per
+ * generation, and is dead again after the last one. Dying cells can not be born.
+ *
+ * Rules are written like in Golly, for example Bosco's rule R5,C0,M1,S34..58,B34..45,NM
+ * R is the range, C the number of states (0 or 2 for alive and dead), M 1 if the cell
+ * counts itself, S and B the survival and birth intervals and N the neighborhood,
+ * NM for Moore, NN for von Neumann or NH for hexagonal. Range 1 rules are written the shorter
+ * way, like B3/S23 or Day & Night B3678/S34678, with a V or H at the end for the von Neumann
+ * or hexagonal neighborhood.
+ * Generations rules add the number of states, like Brian's Brain B2/S/C3 or Star Wars B2/S345/C4.
+ */
+public final class Rule {
+
+    public static final int MAX_RANGE = 100;
+    public static final int MAX_STATES = 256;
+    // The interval with no counts in it
+    private static final int[] EMPTY = { 0, -1 };
+    public static final Rule LIFE = new Rule(1, Neighborhood.MOORE, false, 3, 3, 2, 3);
+
+    private final int range;
+    private final Neighborhood neighborhood;
+    private final boolean countsSelf;
+    // The intervals of a Larger than Life rule, empty for range 1
+    private final int birthMin, birthMax, surviveMin, surviveMax;
+    // Bit k is set if k neighbors give birth or survival, for range 1 only
+    private final int births, survivals;
+    private final int states;
+
+    public Rule(int range, Neighborhood neighborhood, boolean countsSelf,
+                int birthMin, int birthMax, int surviveMin, int surviveMax) {
+        this(range, neighborhood, countsSelf, birthMin, birthMax, surviveMin, surviveMax, 2);
+    }
+
+    /**
+     * @param states Number of states, 2 for alive and dead, more for Generations rules
+     *
+     * An interval from 0 to -1 is empty.
+     */
+    public Rule(int range, Neighborhood neighborhood, boolean countsSelf,
+                int birthMin, int birthMax, int surviveMin, int surviveMax, int states) {
+        int size = neighborhood.getSize(range) - (countsSelf ? 0 : 1);
+        if (range < 1 || range > MAX_RANGE) {
+            throw new IllegalArgumentException("Range must be from 1 to " + MAX_RANGE);
+        }
+        if (neighborhood == Neighborhood.HEXAGONAL && range > 1) {
+            throw new IllegalArgumentException("Hexagonal rules only have range 1");
+        }
+        if (states < 2 || states > MAX_STATES) {
+            throw new IllegalArgumentException("States must be from 2 to " + MAX_STATES);
+        }
+        if (states > 2 && range > 1) {
+            throw new IllegalArgumentException("Rules with more than two states only have range 1");
+        }
+        if (!isInterval(birthMin, birthMax, size) || !isInterval(surviveMin, surviveMax, size)) {
+            throw new IllegalArgumentException("Counts must be from 0 to " + size);
+        }
+        this.range = range;
+        this.neighborhood = neighborhood;
+        this.states = states;
+        if (range == 1) {
+            // A live cell that counts itself has one more, so a count of 0 can never survive
+            this.countsSelf = false;
+            births = mask(birthMin, birthMax);
+            survivals = mask(surviveMin, surviveMax) >>> (countsSelf ? 1 : 0);
+            this.birthMin = this.surviveMin = EMPTY[0];
+            this.birthMax = this.surviveMax = EMPTY[1];
+        } else {
+            this.countsSelf = countsSelf;
+            births = survivals = 0;
+            this.birthMin = birthMin;
+            this.birthMax = birthMax;
+            this.surviveMin = surviveMin;
+            this.surviveMax = surviveMax;
+        }
+    }
+
+    /**
+     * A range 1 rule with any set of counts.
+     *
+     * @param births Bit k set if a dead cell with k neighbors is born
+     * @param survivals Bit k set if a live cell with k neighbors survives
+     * @param states Number of states, 2 for alive and dead, more for Generations rules
+     */
+    public Rule(Neighborhood neighborhood, int births, int survivals, int states) {
+        int size = neighborhood.getSize(1) - 1;
+        if (states < 2 || states > MAX_STATES) {
+            throw new IllegalArgumentException("States must be from 2 to " + MAX_STATES);
+        }
+        if (births >>> size >>> 1 != 0 || survivals >>> size >>> 1 != 0) {
+            throw new IllegalArgumentException("Counts must be from 0 to " + size);
+        }
+        range = 1;
+        this.neighborhood = neighborhood;
+        countsSelf = false;
+        birthMin = surviveMin = EMPTY[0];
+        birthMax = surviveMax = EMPTY[1];
+        this.births = births;
+        this.survivals = survivals;
+        this.states = states;
+    }
+
+    private static boolean isInterval(int min, int max, int size) {
+        return (min == EMPTY[0] && max == EMPTY[1]) || (min >= 0 && min <= max && max <= size);
+    }
+
+    private static int mask(int min, int max) {
+        return max < min ? 0 : (-1 >>> 31 - max) & (-1 << min);
+    }
+
+    /**
+     * @param spec A rule like R5,C0,M1,S34..58,B34..45,NM, B3/S23 or B2/S/C3
+     * @return The rule, with the Moore neighborhood if spec does not name one
+     * @throws IllegalArgumentException If spec is not a rule
+     */
+    public static Rule parse(String spec) {
+        return parse(spec, Neighborhood.MOORE);
+    }
+
+    /**
+     * @param spec A rule like R5,C0,M1,S34..58,B34..45,NM, B3/S23 or B2/S/C3
+     * @param neighborhood The neighborhood to use if spec does not name one
+     * @return The rule
+     * @throws IllegalArgumentException If spec is not a rule
+     */
+    public static Rule parse(String spec, Neighborhood neighborhood) {
+        String text = spec.trim().toUpperCase();
+        try {
+            return text.startsWith("R") ? parseLarger(text, neighborhood) : parseLifeLike(text, neighborhood);
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Not a rule: " + spec);
+        }
+    }
+
+    private static Rule parseLarger(String text, Neighborhood neighborhood) {
+        int range = 1;
+        boolean countsSelf = false;
+        int states = 2;
+        int[] birth = null, survive = null;
+        for (String part : text.split(",")) {
+            String value = part.substring(1);
+            switch (part.charAt(0)) {
+                case 'R':
+                    range = Integer.parseInt(value);
+                    break;
+                case 'C':
+                    // C0 is the same as C2
+                    states = Math.max(2, Integer.parseInt(value));
+                    break;
+                case 'M':
+                    countsSelf = Integer.parseInt(value) != 0;
+                    break;
+                case 'S':
+                    survive = parseInterval(value);
+                    break;
+                case 'B':
+                    birth = parseInterval(value);
+                    break;
+                case 'N':
+                    neighborhood = parseNeighborhood(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Not a rule: " + text);
+            }
+        }
+        if (birth == null || survive == null) throw new IllegalArgumentException("Missing B or S: " + text);
+        return new Rule(range, neighborhood, countsSelf, birth[0], birth[1], survive[0], survive[1], states);
+    }
+
+    private static int[] parseInterval(String value) {
+        if (value.isEmpty()) return EMPTY;
+        int dots = value.indexOf("..");
+        if (dots < 0) {
+            int count = Integer.parseInt(value);
+            return new int[] { count, count };
+        }
+        return new int[] { Integer.parseInt(value.substring(0, dots)), Integer.parseInt(value.substring(dots + 2)) };
+    }
+
+    private static Neighborhood parseNeighborhood(String code) {
+        for (Neighborhood neighborhood : Neighborhood.values()) {
+            if (neighborhood.getCode().equals(code)) return neighborhood;
+        }
+        throw new IllegalArgumentException("Unknown neighborhood N" + code);
+    }
+
+    private static Rule parseLifeLike(String text, Neighborhood neighborhood) {
+        for (Neighborhood suffixed : Neighborhood.values()) {
+            if (!suffixed.getSuffix().isEmpty() && text.endsWith(suffixed.getSuffix())) {
+                neighborhood = suffixed;
+                text = text.substring(0, text.length() - 1);
+            }
+        }
+        String[] parts = text.split("/", -1);
+        if (parts.length < 2 || parts.length > 3 || !parts[0].startsWith("B") || !parts[1].startsWith("S")) {
+            throw new IllegalArgumentException("Not a rule: " + text);
+        }
+        int births = parseDigits(parts[0].substring(1));
+        int survivals = parseDigits(parts[1].substring(1));
+        int states = 2;
+        if (parts.length == 3) {
+            String count = parts[2].startsWith("C") ? parts[2].substring(1) : parts[2];
+            states = Integer.parseInt(count);
+        }
+        return new Rule(neighborhood, births, survivals, states);
+    }
+
+    /**
+     * @return The counts in a string of digits like 36, as a mask with bit k set for the digit k
+     */
+    private static int parseDigits(String digits) {
+        int mask = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            int count = Character.digit(digits.charAt(i), 10);
+            if (count < 0) throw new IllegalArgumentException("Not a count: " + digits);
+            mask |= 1 << count;
+        }
+        return mask;
+    }
+
+    /**
+     * @return Whether this is Conway's Game of Life, which has its own faster engines
+     */
+    public boolean isLife() {
+        return equals(LIFE);
+    }
+
+    /**
+     * @param alive Whether the cell is alive now
+     * @param count Number of live cells in the neighborhood of the cell, itself included
+     * @return Whether the cell is alive in the next generation
+     */
+    public boolean next(boolean alive, int count) {
+        if (range == 1) {
+            return alive ? (survivals >>> count - 1 & 1) != 0 : (births >>> count & 1) != 0;
+        }
+        if (alive) {
+            if (!countsSelf) count--;
+            return count >= surviveMin && count <= surviveMax;
+        }
+        return count >= birthMin && count <= birthMax;
+    }
+
+    public int getRange() {
+        return range;
+    }
+
+    public Neighborhood getNeighborhood() {
+        return neighborhood;
+    }
+
+    public boolean countsSelf() {
+        return countsSelf;
+    }
+
+    /**
+     * @return Bit k set if a dead cell with k neighbors is born, for range 1 rules
+     */
+    public int getBirths() {
+        return births;
+    }
+
+    /**
+     * @return Bit k set if a live cell with k neighbors, not counting itself, survives, for range 1 rules
+     */
+    public int getSurvivals() {
+        return survivals;
+    }
+
+    /**
+     * @return The lowest count that gives birth in a Larger than Life rule
+     */
+    public int getBirthMin() {
+        return birthMin;
+    }
+
+    public int getBirthMax() {
+        return birthMax;
+    }
+
+    public int getSurviveMin() {
+        return surviveMin;
+    }
+
+    public int getSurviveMax() {
+        return surviveMax;
+    }
+
+    /**
+     * @return Number of states a cell can be in, 2 unless this is a Generations rule
+     */
+    public int getStates() {
+        return states;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Rule)) return false;
+        Rule rule = (Rule) o;
+        return range == rule.range && neighborhood == rule.neighborhood && countsSelf == rule.countsSelf
+                && birthMin == rule.birthMin && birthMax == rule.birthMax
+                && surviveMin == rule.surviveMin && surviveMax == rule.surviveMax
+                && births == rule.births && survivals == rule.survivals && states == rule.states;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((range * 31 + neighborhood.ordinal()) * 31 + (countsSelf ? 1 : 0)) * 31
+                + ((((birthMin * 31 + birthMax) * 31 + surviveMin) * 31 + surviveMax) * 31
+                + births * 31 + survivals) * 31 + states;
+    }
+
+    @Override
+    public String toString() {
+        if (range == 1) {
+            return "B" + digits(births) + "/S" + digits(survivals) + (states == 2 ? "" : "/C" + states)
+                    + neighborhood.getSuffix();
+        }
+        return "R" + range + ",C" + (states == 2 ? 0 : states) + ",M" + (countsSelf ? 1 : 0)
+                + ",S" + interval(surviveMin, surviveMax) + ",B" + interval(birthMin, birthMax)
+                + ",N" + neighborhood.getCode();
+    }
+
+    private static String interval(int min, int max) {
+        return max < min ? "" : min + ".." + max;
+    }
+
+    private static String digits(int mask) {
+        StringBuilder digits = new StringBuilder();
+        for (int k = 0; mask >>> k != 0; k++) {
+            if ((mask >>> k & 1) != 0) digits.append(k);
+        }
+        return digits.toString();
+    }
+}
@@ -0,0 +1,57 @@
+package game;
+
+/**
+ * The row loops of BitField computed one word at a time with plain long operations.
+ */
+final class ScalarKernel implements RowKernel {
+
+    /**
+     * Compute the sum of every cell of a row and its left and right neighbor.
+     * A cell to the left of x is bit x - 1, so the row shifted left by one puts it at x.
+     */
+    @Override
+    public void horizontalSums(long[] row, int offset, int words, long[] ones, long[] twos) {
+        long previous = 0, current = row[offset];
+        for (int w = 0; w < words; w++) {
+            long next = w + 1 < words ? row[offset + w + 1] : 0;
+            long left = (current << 1) | (previous >>> 63);
+            long right = (current >>> 1) | (next << 63);
+            ones[w] = left ^ current ^ right;
+            twos[w] = (left & current) | (right & (left ^ current));
+            previous = current;
+            current = next;
+        }
+    }
+
+    @Override
+    public int nextRow(long[] above0, long[] above1, long[] mid0, long[] mid1, long[] below0, long[] below1,
+                       long[] center, int centerOffset, long[] out, int outOffset, int words, long lastWordMask) {
+        int population = 0;
+        for (int w = 0; w < words; w++) {
+            long next = nextWord(above0[w], above1[w], mid0[w], mid1[w], below0[w], below1[w], center[centerOffset + w]);
+            if (w == words - 1) next &= lastWordMask;
+            out[outOffset + w] = next;
+            population += Long.bitCount(next);
+        }
+        return population;
+    }
+
+    /**
+     * @param alive The cells of the word in the current generation
+     * @return The cells of the word in the next generation, from the horizontal sums of the three rows
+     */
+    static long nextWord(long a0, long a1, long b0, long b1, long c0, long c1, long alive) {
+        // Ones: parity and carry of the three 1 planes
+        long ones = a0 ^ b0 ^ c0;
+        long carry = (a0 & b0) | (c0 & (a0 ^ b0));
+
+        // Twos: a1, b1, c1 and carry are all worth 2. Count if exactly one or exactly two are set
+        long x = a1 ^ b1, xBoth = a1 & b1;
+        long z = c1 ^ carry, zBoth = c1 & carry;
+        long twosIsOne = (x ^ z) & ~(xBoth | zBoth);
+        long twosIsTwo = (x & z) | ((xBoth ^ zBoth) & ~(x | z));
+
+        // Block count 3 (1 + 2), or 4 (2 + 2) and alive
+        return (ones & twosIsOne) | (~ones & twosIsTwo & alive);
+    }
+}
@@ -0,0 +1,274 @@
+package game;
+
+import utils.Vec2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Created by Erik Mattfolk on 2019-02-13.
+ *
+ * Stores information about shapes which can be drawn or put on the field
+ * The constructor takes an arbitrary collection of Points in the 2D plane and translates them
+ * so that the origin is (0, 0)
+ *
+ * The points are stored as a bitmap of packed rows. Bit (x % 64) of word (x / 64) in a row
+ * is set if the shape has a point at x. All 8 orientations (4 rotations, mirrored or not)
+ * are computed the first time one of them is asked for and shared between them afterwards.
+ *
+ * The canonical hash is the smallest hash of the 8 orientations, so a shape has the same
+ * canonical hash no matter how it is rotated or mirrored.
+ */
+public class Shape {
+
+    public static final Shape EMPTY = new Shape(new ArrayList<>());
+    private static final int ORIENTATIONS = 8;
+    private static final int MIRRORED = 4;
+
+    private final int width, height;
+    private final int wordsPerRow;
+    private final long[] rows;
+    private final int cellCount;
+    private final Vec2 middle;
+    private final int orientation;
+    private Shape[] orientations;
+    private long canonicalHash;
+    private boolean hashed;
+
+    public Shape(List<Vec2> points) {
+        Vec2 min = new Vec2(Integer.MAX_VALUE), max = new Vec2(Integer.MIN_VALUE);
+        for (Vec2 p : points) {
+            min.x = p.x < min.x ? p.x : min.x;
+            min.y = p.y < min.y ? p.y : min.y;
+            max.x = p.x > max.x ? p.x : max.x;
+            max.y = p.y > max.y ? p.y : max.y;
+        }
+        if (points.isEmpty()) {
+            width = 0;
+            height = 0;
+        } else {
+            width = max.x - min.x + 1;
+            height = max.y - min.y + 1;
+        }
+        wordsPerRow = (width + 63) >>> 6;
+        rows = new long[wordsPerRow * height];
+        for (Vec2 p : points) {
+            int x = p.x - min.x, y = p.y - min.y;
+            rows[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+        }
+        cellCount = countCells(rows);
+        middle = new Vec2((width - 1) / 2, (height - 1) / 2);
+        orientation = 0;
+    }
+
+    /**
+     * @param width Width of the bounding box
+     * @param height Height of the bounding box
+     * @param rows Packed rows, already translated to the origin
+     * @param orientation Which of the 8 orientations this is
+     */
+    private Shape(int width, int height, long[] rows, int orientation) {
+        this.width = width;
+        this.height = height;
+        this.wordsPerRow = (width + 63) >>> 6;
+        this.rows = rows;
+        this.orientation = orientation;
+        cellCount = countCells(rows);
+        middle = new Vec2((width - 1) / 2, (height - 1) / 2);
+    }
+
+    /**
+     * @return The shape rotated 90 degrees right
+     */
+    public Shape getRotation() {
+        return getOrientation((orientation & MIRRORED) | ((orientation + 1) & 3));
+    }
+
+    /**
+     * @return The shape mirrored along its vertical axis
+     */
+    public Shape getMirror() {
+        return getOrientation((~orientation & MIRRORED) | (-orientation & 3));
+    }
+
+    /**
+     * @param index 0-3 are rotations right of the original, 4-7 are the same rotations of the mirror image
+     * @return The requested orientation of this shape
+     */
+    public Shape getOrientation(int index) {
+        if (orientations == null) {
+            createOrientations();
+        }
+        return orientations[index];
+    }
+
+    public int getOrientationIndex() {
+        return orientation;
+    }
+
+    /**
+     * Compute all orientations from the original one and share the table between them.
+     * A shape that is not the original always has the table, since it was created here.
+     */
+    private void createOrientations() {
+        Shape[] table = new Shape[ORIENTATIONS];
+        table[0] = this;
+        Shape mirror = transform(this, true, MIRRORED);
+        table[MIRRORED] = mirror;
+        for (int i = 1; i < 4; i++) {
+            table[i] = transform(table[i - 1], false, i);
+            table[MIRRORED + i] = transform(table[MIRRORED + i - 1], false, MIRRORED + i);
+        }
+        for (Shape shape : table) {
+            shape.orientations = table;
+        }
+    }
+
+    /**
+     * @param shape The shape to transform
+     * @param mirror If true mirror the shape, otherwise rotate it 90 degrees right
+     * @param index Orientation index of the result
+     * @return A new transformed shape
+     */
+    private static Shape transform(Shape shape, boolean mirror, int index) {
+        int newWidth = mirror ? shape.width : shape.height;
+        int newHeight = mirror ? shape.height : shape.width;
+        int newWords = (newWidth + 63) >>> 6;
+        long[] result = new long[newWords * newHeight];
+        for (int y = 0; y < shape.height; y++) {
+            for (int w = 0; w < shape.wordsPerRow; w++) {
+                long word = shape.rows[y * shape.wordsPerRow + w];
+                while (word != 0) {
+                    int x = (w << 6) + Long.numberOfTrailingZeros(word);
+                    int nx = mirror ? shape.width - 1 - x : shape.height - 1 - y;
+                    int ny = mirror ? y : x;
+                    result[ny * newWords + (nx >>> 6)] |= 1L << nx;
+                    word &= word - 1;
+                }
+            }
+        }
+        return new Shape(newWidth, newHeight, result, index);
+    }
+
+    /**
+     * @return 64-bit hash of the shape that is the same for all of its orientations
+     */
+    public long getCanonicalHash() {
+        if (!hashed) {
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < ORIENTATIONS; i++) {
+                min = Math.min(min, getOrientation(i).bitmapHash());
+            }
+            for (Shape shape : orientations) {
+                shape.canonicalHash = min;
+                shape.hashed = true;
+            }
+        }
+        return canonicalHash;
+    }
+
+    /**
+     * @param other Another shape
+     * @return True if other is this shape in any orientation
+     */
+    public boolean isSameObject(Shape other) {
+        if (getCanonicalHash() != other.getCanonicalHash()) return false;
+        for (int i = 0; i < ORIENTATIONS; i++) {
+            if (getOrientation(i).equals(other)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return Hash of this exact orientation
+     */
+    private long bitmapHash() {
+        long hash = mix(((long) width << 32) | height);
+        for (long word : rows) {
+            hash = mix(hash ^ word) + word;
+        }
+        return hash;
+    }
+
+    /**
+     * The finalizer of SplitMix64. Spreads every input bit over the whole result.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static int countCells(long[] rows) {
+        int count = 0;
+        for (long word : rows) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * @return A new list with all points of the shape. Allocates, so keep it out of hot paths.
+     */
+    public List<Vec2> getPoints() {
+        ArrayList<Vec2> points = new ArrayList<>(cellCount);
+        for (int y = 0; y < height; y++) {
+            for (int w = 0; w < wordsPerRow; w++) {
+                long word = rows[y * wordsPerRow + w];
+                while (word != 0) {
+                    points.add(new Vec2((w << 6) + Long.numberOfTrailingZeros(word), y));
+                    word &= word - 1;
+                }
+            }
+        }
+        return points;
+    }
+
+    /**
+     * @return The packed rows of the shape. The array is shared and must not be modified.
+     */
+    public long[] getRows() {
+        return rows;
+    }
+
+    public int getWordsPerRow() {
+        return wordsPerRow;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getCellCount() {
+        return cellCount;
+    }
+
+    public boolean isEmpty() {
+        return cellCount == 0;
+    }
+
+    public Vec2 getMiddle() {
+        return middle;
+    }
+
+    /**
+     * Shapes are equal if they have the same points in the same orientation.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Shape)) return false;
+        Shape other = (Shape) o;
+        return width == other.width && height == other.height && Arrays.equals(rows, other.rows);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(bitmapHash());
+    }
+}
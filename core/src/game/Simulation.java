@@ -0,0 +1,59 @@
+package game;
+
+/**
+ * A board of cells that computes its own generations, without any user interface.
+ *
+ * This is what programs that embed the simulation use. The board is a grid of width x height
+ * cells, and whole boards are moved in and out as packed rows: wordsPerRow longs per row,
+ * with cell x of row y in bit x % 64 of word y * wordsPerRow + x / 64. Bits past the width
+ * in the last word of a row are always 0.
+ *
+ * A simulation is not thread safe. Cells must not be set from another thread during update().
+ */
+public interface Simulation {
+
+    /**
+     * Simulate one generation. If a listener is set it is called before this returns.
+     */
+    void update();
+
+    /**
+     * @param x x-coordinate
+     * @param y y-coordinate
+     * @param alive What to set the cell to. Cells outside the board are ignored.
+     */
+    void setTile(int x, int y, boolean alive);
+
+    boolean getTile(int x, int y);
+
+    /**
+     * Set every cell of the board at once. Only the cells that differ from the board are changed.
+     *
+     * @param rows The packed rows of the new board, wordsPerRow * height longs
+     * @throws IllegalArgumentException If rows has the wrong length
+     */
+    void load(long[] rows);
+
+    /**
+     * @param into Array of at least wordsPerRow * height longs to copy the packed rows of the board into
+     */
+    void export(long[] into);
+
+    /**
+     * @param listener Listener to tell about the births and deaths of every generation, null for none
+     */
+    void setListener(GenerationListener listener);
+
+    /**
+     * @return Number of generations simulated so far
+     */
+    int getGeneration();
+
+    int getPopulation();
+
+    int getWidth();
+
+    int getHeight();
+
+    int getWordsPerRow();
+}
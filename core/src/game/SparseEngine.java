@@ -0,0 +1,141 @@
+package game;
+
+import java.util.Arrays;
+
+/**
+ * The engine that only looks at cells next to the cells that changed.
+ *
+ * Every cell has a neighbor count, which is changed for the neighbors of every birth and death.
+ * Cells that may change in the next generation are kept as indexes (y * width + x)
+ * in a plain int array, at most once each. The arrays only grow, so once they are
+ * large enough a generation does not allocate anything.
+ *
+ * A generation costs about as much as the number of cells that changed in the last one,
+ * whatever the size of the board, but the counts take two bytes for every cell.
+ */
+final class SparseEngine implements Engine {
+
+    // Game rules
+    private static final int LIFE_COUNT = 3;
+    private static final int DEATH_LOWER = 2;
+    private static final int DEATH_UPPER = 3;
+
+    private final Field field;
+    private final int width, height;
+    private byte[] neighborCount;
+    private boolean[] queued;
+    private int[] toUpdate, changed;
+    private int toUpdateSize, changedSize;
+
+    SparseEngine(Field field) {
+        this.field = field;
+        width = field.getWidth();
+        height = field.getHeight();
+        toUpdate = new int[64];
+        changed = new int[64];
+    }
+
+    @Override
+    public int update() {
+        long[] rows = field.getRows();
+        int wordsPerRow = field.getWordsPerRow();
+        if (changed.length < toUpdateSize) {
+            changed = new int[toUpdate.length];
+        }
+        for (int i = 0; i < toUpdateSize; i++) {
+            int cell = toUpdate[i];
+            queued[cell] = false;
+            int y = cell / width, x = cell - y * width;
+            boolean alive = (rows[y * wordsPerRow + (x >>> 6)] >>> x & 1) != 0;
+            int neighbors = neighborCount[cell];
+            if (!alive && neighbors == LIFE_COUNT
+                    || alive && (neighbors < DEATH_LOWER || neighbors > DEATH_UPPER)) {
+                field.flip(x, y);
+                changed[changedSize++] = cell;
+            }
+        }
+        toUpdateSize = 0;
+        for (int i = 0; i < changedSize; i++) {
+            int cell = changed[i];
+            int y = cell / width, x = cell - y * width;
+            updateNeighbors(x, y, (rows[y * wordsPerRow + (x >>> 6)] >>> x & 1) != 0 ? 1 : -1);
+        }
+        int count = changedSize;
+        changedSize = 0;
+        return count;
+    }
+
+    @Override
+    public void cellChanged(int x, int y, boolean alive) {
+        updateNeighbors(x, y, alive ? 1 : -1);
+    }
+
+    /**
+     * Count the neighbors of every cell from the packed rows, and queue every live cell and its neighbors.
+     */
+    @Override
+    public void load() {
+        neighborCount = new byte[width * height];
+        queued = new boolean[width * height];
+        long[] rows = field.getRows();
+        int wordsPerRow = field.getWordsPerRow();
+        for (int y = 0; y < height; y++) {
+            for (int w = 0; w < wordsPerRow; w++) {
+                long word = rows[y * wordsPerRow + w];
+                while (word != 0) {
+                    updateNeighbors((w << 6) + Long.numberOfTrailingZeros(word), y, 1);
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void unload() {
+        neighborCount = null;
+        queued = null;
+        toUpdate = new int[64];
+        changed = new int[64];
+        toUpdateSize = 0;
+        changedSize = 0;
+    }
+
+    @Override
+    public long getMemoryNeeded() {
+        long cells = (long) width * height;
+        // Cells are indexed with an int
+        if (cells > Integer.MAX_VALUE - 8) return Long.MAX_VALUE;
+        return cells * 2 + (toUpdate.length + changed.length) * 4L;
+    }
+
+    /**
+     * @param x x-coordinate of the tile
+     * @param y y-coordinate of the tile
+     * @param change 1 or -1 depending on whether the tile at (x, y) was switched on or off
+     *
+     * Change neighborCount for all neighbors of (x, y) by change.
+     * The tile and its neighbors are queued to be looked at in the next update.
+     */
+    private void updateNeighbors(int x, int y, int change) {
+        int x0 = Math.max(0, x - 1), x1 = Math.min(width - 1, x + 1);
+        int y0 = Math.max(0, y - 1), y1 = Math.min(height - 1, y + 1);
+        for (int i = y0; i <= y1; i++) {
+            for (int j = x0; j <= x1; j++) {
+                int cell = i * width + j;
+                if (i != y || j != x) {
+                    neighborCount[cell] += change;
+                }
+                queue(cell);
+            }
+        }
+    }
+
+    private void queue(int cell) {
+        if (queued[cell]) return;
+        queued[cell] = true;
+        if (toUpdateSize == toUpdate.length) {
+            toUpdate = Arrays.copyOf(toUpdate, toUpdate.length * 2);
+        }
+        toUpdate[toUpdateSize++] = cell;
+    }
+}
@@ -0,0 +1,60 @@
+package utils;
+
+/**
+ * Which cells around a cell count as its neighbors.
+ *
+ * MOORE is the square around the cell and VON_NEUMANN the diamond, both out to the range of the rule.
+ * HEXAGONAL only has range 1. The board is still stored as rows and columns, but every odd row
+ * is drawn half a cell to the right, so each cell touches two cells in its own row and two in
+ * the rows above and below. For a cell in an even row those are the cell straight above or below
+ * and the one to its left, for a cell in an odd row the one straight above or below and the one
+ * to its right.
+ */
+public enum Neighborhood {
+    MOORE("Moore", "M", ""),
+    VON_NEUMANN("von Neumann", "N", "V"),
+    HEXAGONAL("Hexagonal", "H", "H");
+
+    private final String name;
+    private final String code;
+    private final String suffix;
+
+    /**
+     * @param name Name to show
+     * @param code Letter after N in Larger than Life rules, like NM
+     * @param suffix Letter after B3/S23 style rules, like B2/S34H
+     */
+    Neighborhood(String name, String code, String suffix) {
+        this.name = name;
+        this.code = code;
+        this.suffix = suffix;
+    }
+
+    /**
+     * @return Number of cells within range of a cell, the cell itself included
+     */
+    public int getSize(int range) {
+        int side = 2 * range + 1;
+        switch (this) {
+            case MOORE:
+                return side * side;
+            case VON_NEUMANN:
+                return 2 * range * (range + 1) + 1;
+            default:
+                return 3 * range * (range + 1) + 1;
+        }
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,230 @@
+package cluster;
+
+import game.PngExporter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a board split into shardsX * shardsY rectangles, each simulated by a Worker in its own process.
+ *
+ * The workers are started as new JVMs on this machine and talk to the coordinator and to each
+ * other over sockets on the loopback interface. The board starts out as random cells that
+ * every worker fills in for its own shard, so the whole board never has to be in one process.
+ *
+ * step() is the generation barrier: it returns when every worker has done the generations,
+ * with the population of the whole board. snapshot() gathers the shards into one board,
+ * which only makes sense for boards that fit in memory.
+ */
+public final class Coordinator implements AutoCloseable {
+
+    static final int TIMEOUT = 30000;
+    private static final Logger LOGGER = Logger.getLogger(Coordinator.class.getName());
+    private static final int REPORT_INTERVAL = 100;
+    private static final String USAGE =
+            "Usage: cluster <shards x> <shards y> <width> <height> <generations> [density] [seed] [output png]";
+
+    private final int shardsX, shardsY, width, height;
+    private final Process[] processes;
+    private final Socket[] sockets;
+    private final DataInputStream[] in;
+    private final DataOutputStream[] out;
+    private ServerSocket server;
+
+    public Coordinator(int shardsX, int shardsY, int width, int height) {
+        this.shardsX = shardsX;
+        this.shardsY = shardsY;
+        this.width = width;
+        this.height = height;
+        int shards = shardsX * shardsY;
+        processes = new Process[shards];
+        sockets = new Socket[shards];
+        in = new DataInputStream[shards];
+        out = new DataOutputStream[shards];
+    }
+
+    /**
+     * @param seed Seed of the random board
+     * @param density Chance for a cell to start alive
+     *
+     * Start the workers and wait until they are connected to each other.
+     */
+    public void start(long seed, double density) throws IOException {
+        server = new ServerSocket(0, processes.length, InetAddress.getLoopbackAddress());
+        server.setSoTimeout(TIMEOUT);
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        for (int i = 0; i < processes.length; i++) {
+            processes[i] = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    "game.Main", "worker", String.valueOf(server.getLocalPort()))
+                    .inheritIO()
+                    .start();
+        }
+
+        int[] ports = new int[processes.length];
+        for (int i = 0; i < processes.length; i++) {
+            sockets[i] = server.accept();
+            sockets[i].setTcpNoDelay(true);
+            in[i] = new DataInputStream(new BufferedInputStream(sockets[i].getInputStream()));
+            out[i] = new DataOutputStream(new BufferedOutputStream(sockets[i].getOutputStream()));
+            ports[i] = in[i].readInt();
+        }
+
+        for (int i = 0; i < processes.length; i++) {
+            out[i].writeInt(Protocol.INIT);
+            out[i].writeInt(i);
+            out[i].writeInt(shardsX);
+            out[i].writeInt(shardsY);
+            out[i].writeInt(width);
+            out[i].writeInt(height);
+            out[i].writeLong(seed);
+            out[i].writeDouble(density);
+            for (int port : ports) {
+                out[i].writeInt(port);
+            }
+            out[i].flush();
+        }
+        for (DataInputStream worker : in) {
+            if (worker.readInt() != Protocol.READY) throw new IOException("Worker did not get ready");
+        }
+    }
+
+    /**
+     * @param generations Number of generations to simulate
+     * @return Population of the whole board after the generations
+     */
+    public long step(int generations) throws IOException {
+        for (DataOutputStream worker : out) {
+            worker.writeInt(Protocol.STEP);
+            worker.writeInt(generations);
+            worker.flush();
+        }
+        long population = 0;
+        for (DataInputStream worker : in) {
+            population += worker.readLong();
+        }
+        return population;
+    }
+
+    /**
+     * @return The packed rows of the whole board, (width + 63) / 64 words per row
+     */
+    public long[] snapshot() throws IOException {
+        int wordsPerRow = (width + 63) >>> 6;
+        long[] board = new long[wordsPerRow * height];
+        for (DataOutputStream worker : out) {
+            worker.writeInt(Protocol.SNAPSHOT);
+            worker.flush();
+        }
+        for (int i = 0; i < processes.length; i++) {
+            int shardX = i % shardsX, shardY = i / shardsX;
+            int left = Protocol.getEdge(width, shardsX, shardX);
+            int top = Protocol.getEdge(height, shardsY, shardY);
+            int shardWidth = Protocol.getEdge(width, shardsX, shardX + 1) - left;
+            int shardHeight = Protocol.getEdge(height, shardsY, shardY + 1) - top;
+            // Rows of the worker include the halo, so the shard starts at bit 1
+            long[] row = new long[(shardWidth + 2 + 63) >>> 6];
+            for (int y = 0; y < shardHeight; y++) {
+                Protocol.readLongs(in[i], row, row.length);
+                for (int w = 0; w < row.length; w++) {
+                    long word = row[w];
+                    while (word != 0) {
+                        int x = (w << 6) + Long.numberOfTrailingZeros(word) - 1;
+                        if (x >= 0 && x < shardWidth) {
+                            int boardX = left + x;
+                            board[(top + y) * wordsPerRow + (boardX >>> 6)] |= 1L << boardX;
+                        }
+                        word &= word - 1;
+                    }
+                }
+            }
+        }
+        return board;
+    }
+
+    /**
+     * Tell the workers to stop and wait for their processes to end.
+     */
+    @Override
+    public void close() {
+        for (int i = 0; i < processes.length; i++) {
+            try {
+                if (out[i] != null) {
+                    out[i].writeInt(Protocol.STOP);
+                    out[i].flush();
+                    sockets[i].close();
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, e.toString());
+            }
+        }
+        for (Process process : processes) {
+            if (process == null) continue;
+            try {
+                if (!process.waitFor(TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            if (server != null) server.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, e.toString());
+        }
+    }
+
+    /**
+     * @param args shards x, shards y, width, height, generations, then optionally density, seed and output png
+     */
+    public static void run(String[] args) {
+        int shardsX, shardsY, width, height, generations;
+        double density;
+        long seed;
+        String output;
+        try {
+            shardsX = Integer.parseInt(args[0]);
+            shardsY = Integer.parseInt(args[1]);
+            width = Integer.parseInt(args[2]);
+            height = Integer.parseInt(args[3]);
+            generations = Integer.parseInt(args[4]);
+            density = args.length > 5 ? Double.parseDouble(args[5]) : 0.5;
+            seed = args.length > 6 ? Long.parseLong(args[6]) : System.nanoTime();
+            output = args.length > 7 ? args[7] : null;
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(USAGE);
+            return;
+        }
+
+        try (Coordinator coordinator = new Coordinator(shardsX, shardsY, width, height)) {
+            coordinator.start(seed, density);
+            long start = System.nanoTime();
+            for (int done = 0; done < generations; ) {
+                int batch = Math.min(REPORT_INTERVAL, generations - done);
+                long population = coordinator.step(batch);
+                done += batch;
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("Generation %d: population %d, %.1f generations/s%n",
+                        done, population, done / seconds);
+            }
+            if (output != null) {
+                long[] board = coordinator.snapshot();
+                PngExporter.export(board, width, height, (width + 63) >>> 6, new File(output), 1);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, e.toString(), e);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package cluster;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Messages and helpers shared by the Coordinator and the Workers.
+ *
+ * Every message starts with one of the int constants below, followed by its arguments:
+ * INIT id, shards x, shards y, width, height, seed, density, then the neighbor port of every worker.
+ * STEP generations, answered with the population of the shard after the generations.
+ * SNAPSHOT, answered with the rows of the shard.
+ * READY is sent by a worker when it is connected to all of its neighbors.
+ */
+final class Protocol {
+
+    static final int INIT = 1;
+    static final int READY = 2;
+    static final int STEP = 3;
+    static final int SNAPSHOT = 4;
+    static final int STOP = 5;
+
+    private Protocol() {}
+
+    /**
+     * @return The first column or row of part i when total is split into parts
+     */
+    static int getEdge(int total, int parts, int i) {
+        return (int) ((long) total * i / parts);
+    }
+
+    /**
+     * @return Whether the cell (x, y) of a random board starts alive.
+     * The answer only depends on the cell, so it is the same however the board is split.
+     */
+    static boolean isAlive(long seed, double density, int x, int y) {
+        long h = seed + x * 0x9e3779b97f4a7c15L + y * 0xc2b2ae3d27d4eb4fL;
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        h ^= h >>> 31;
+        return (h >>> 11) * 0x1.0p-53 < density;
+    }
+
+    static void writeLongs(DataOutputStream out, long[] words, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            out.writeLong(words[i]);
+        }
+    }
+
+    static void readLongs(DataInputStream in, long[] words, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            words[i] = in.readLong();
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package cluster;
+
+import game.BitField;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One process of a sharded simulation. It owns a rectangle of the board and is started by the Coordinator.
+ *
+ * The shard is kept in a BitField one cell larger on every side. That border, the halo,
+ * holds copies of the cells of the neighboring shards, so a generation of the shard can be
+ * computed on its own. Before every generation the halo is exchanged with the neighbors:
+ * first the columns with the shards to the west and east, then the rows with the shards
+ * to the north and south. The rows include the halo columns just received, which is how
+ * the corner cells get to the diagonal neighbors without connecting to them.
+ * Sides at the edge of the board have no neighbor and their halo is kept dead.
+ *
+ * Reading the halo from a neighbor waits until the neighbor has sent it, so neighbors never
+ * get more than one generation apart. The Coordinator only hears from a worker when all of
+ * the generations it asked for are done.
+ */
+public final class Worker {
+
+    private static final Logger LOGGER = Logger.getLogger(Worker.class.getName());
+    private static final String USAGE = "Usage: worker <coordinator port>";
+
+    private final DataInputStream fromCoordinator;
+    private final DataOutputStream toCoordinator;
+    private int id;
+    private int width, height;
+    private BitField field;
+    private Link west, east, north, south;
+    private long[] column, row;
+
+    private Worker(Socket coordinator) throws IOException {
+        coordinator.setTcpNoDelay(true);
+        fromCoordinator = new DataInputStream(new BufferedInputStream(coordinator.getInputStream()));
+        toCoordinator = new DataOutputStream(new BufferedOutputStream(coordinator.getOutputStream()));
+    }
+
+    /**
+     * @param args Port of the coordinator on the loopback interface
+     */
+    public static void run(String[] args) {
+        int port;
+        try {
+            port = Integer.parseInt(args[0]);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(USAGE);
+            return;
+        }
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            new Worker(socket).serve();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, e.toString(), e);
+        }
+    }
+
+    private void serve() throws IOException {
+        try (ServerSocket neighbors = new ServerSocket(0, 4, InetAddress.getLoopbackAddress())) {
+            toCoordinator.writeInt(neighbors.getLocalPort());
+            toCoordinator.flush();
+            init(neighbors);
+        }
+        toCoordinator.writeInt(Protocol.READY);
+        toCoordinator.flush();
+
+        try {
+            while (true) {
+                int command = fromCoordinator.readInt();
+                if (command == Protocol.STEP) {
+                    int generations = fromCoordinator.readInt();
+                    for (int i = 0; i < generations; i++) {
+                        exchange();
+                        field.update();
+                    }
+                    toCoordinator.writeLong(getPopulation());
+                } else if (command == Protocol.SNAPSHOT) {
+                    for (int y = 1; y <= height; y++) {
+                        readRow(y);
+                        Protocol.writeLongs(toCoordinator, row, row.length);
+                    }
+                } else {
+                    return;
+                }
+                toCoordinator.flush();
+            }
+        } finally {
+            for (Link link : new Link[] { west, east, north, south }) {
+                if (link != null) link.socket.close();
+            }
+        }
+    }
+
+    /**
+     * Read which shard this is, fill it with its part of the random board and connect to the neighbors.
+     * Every worker connects to its east and south neighbor and accepts its west and north neighbor.
+     */
+    private void init(ServerSocket neighbors) throws IOException {
+        if (fromCoordinator.readInt() != Protocol.INIT) throw new IOException("Expected INIT");
+        id = fromCoordinator.readInt();
+        int shardsX = fromCoordinator.readInt(), shardsY = fromCoordinator.readInt();
+        int boardWidth = fromCoordinator.readInt(), boardHeight = fromCoordinator.readInt();
+        long seed = fromCoordinator.readLong();
+        double density = fromCoordinator.readDouble();
+        int[] ports = new int[shardsX * shardsY];
+        for (int i = 0; i < ports.length; i++) {
+            ports[i] = fromCoordinator.readInt();
+        }
+
+        int shardX = id % shardsX, shardY = id / shardsX;
+        int left = Protocol.getEdge(boardWidth, shardsX, shardX);
+        int top = Protocol.getEdge(boardHeight, shardsY, shardY);
+        width = Protocol.getEdge(boardWidth, shardsX, shardX + 1) - left;
+        height = Protocol.getEdge(boardHeight, shardsY, shardY + 1) - top;
+        field = new BitField(width + 2, height + 2);
+        column = new long[(height + 63) >>> 6];
+        row = new long[field.getWordsPerRow()];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (Protocol.isAlive(seed, density, left + x, top + y)) {
+                    field.setTile(x + 1, y + 1, true);
+                }
+            }
+        }
+
+        if (shardX + 1 < shardsX) east = Link.connect(ports[id + 1], id);
+        if (shardY + 1 < shardsY) south = Link.connect(ports[id + shardsX], id);
+        int incoming = (shardX > 0 ? 1 : 0) + (shardY > 0 ? 1 : 0);
+        neighbors.setSoTimeout(Coordinator.TIMEOUT);
+        // With one column of shards the north neighbor is id - 1 too, so the row is checked first
+        for (int i = 0; i < incoming; i++) {
+            Link link = new Link(neighbors.accept());
+            int from = link.in.readInt();
+            if (shardY > 0 && from == id - shardsX) north = link;
+            else if (shardX > 0 && from == id - 1) west = link;
+            else throw new IOException("Unexpected connection from shard " + from);
+        }
+    }
+
+    /**
+     * Send the edges of the shard to the neighbors and put what they send in the halo.
+     */
+    private void exchange() throws IOException {
+        if (west != null) sendColumn(west, 1);
+        if (east != null) sendColumn(east, width);
+        receiveColumn(west, 0);
+        receiveColumn(east, width + 1);
+
+        if (north != null) sendRow(north, 1);
+        if (south != null) sendRow(south, height);
+        receiveRow(north, 0);
+        receiveRow(south, height + 1);
+    }
+
+    private void sendColumn(Link link, int x) throws IOException {
+        Arrays.fill(column, 0);
+        for (int y = 0; y < height; y++) {
+            if (field.getTile(x, y + 1)) column[y >>> 6] |= 1L << y;
+        }
+        Protocol.writeLongs(link.out, column, column.length);
+        link.out.flush();
+    }
+
+    /**
+     * Fill halo column x with the column from the link, or with dead cells if there is no link.
+     */
+    private void receiveColumn(Link link, int x) throws IOException {
+        if (link != null) {
+            Protocol.readLongs(link.in, column, column.length);
+        } else {
+            Arrays.fill(column, 0);
+        }
+        for (int y = 0; y < height; y++) {
+            field.setTile(x, y + 1, (column[y >>> 6] >>> y & 1) != 0);
+        }
+    }
+
+    private void sendRow(Link link, int y) throws IOException {
+        readRow(y);
+        Protocol.writeLongs(link.out, row, row.length);
+        link.out.flush();
+    }
+
+    private void receiveRow(Link link, int y) throws IOException {
+        if (link != null) {
+            Protocol.readLongs(link.in, row, row.length);
+        } else {
+            Arrays.fill(row, 0);
+        }
+        field.setRow(y, row);
+    }
+
+    private void readRow(int y) {
+        System.arraycopy(field.getRows(), y * row.length, row, 0, row.length);
+    }
+
+    /**
+     * @return Number of live cells in the shard, the halo not included
+     */
+    private long getPopulation() {
+        long[] rows = field.getRows();
+        int words = field.getWordsPerRow();
+        long population = 0;
+        for (int y = 1; y <= height; y++) {
+            for (int w = 0; w < words; w++) {
+                long word = rows[y * words + w];
+                if (w == 0) word &= ~1L;
+                if (w == width >>> 6) word &= -1L >>> (63 - (width & 63));
+                if (w > width >>> 6) word = 0;
+                population += Long.bitCount(word);
+            }
+        }
+        return population;
+    }
+
+    /**
+     * A connection to a neighboring worker.
+     */
+    private static class Link {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Link(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        static Link connect(int port, int id) throws IOException {
+            Link link = new Link(new Socket(InetAddress.getLoopbackAddress(), port));
+            link.out.writeInt(id);
+            link.out.flush();
+            return link;
+        }
+    }
+}
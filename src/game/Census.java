@@ -0,0 +1,497 @@
+package game;
+
+import utils.Vec2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counts the objects on a settled field, like blocks, blinkers and gliders.
+ *
+ * Some oscillators fall apart into pieces in some of their phases, like the beacon
+ * and the toad, so objects can not just be the 8-connected components of the board.
+ * Instead the board is run for GROUP_GENERATIONS generations on the side, and an object
+ * is an 8-connected component of every cell that was alive at some point in that run.
+ * Cells that interact end up in the same component. The object is the live cells of
+ * the component on the board itself.
+ *
+ * Still lifes next to each other can also form one component that is stable, while each of
+ * them is stable on its own too (a pseudo still life). Such a component is split into the
+ * smallest parts that are each stable, made of its 4-connected pieces, so it is counted as
+ * its still lifes like in apgsearch.
+ *
+ * Components are found with a union-find over the horizontal runs of the packed rows,
+ * so the work depends on the number of runs and not on the number of cells. Every object
+ * is turned into a Shape and identified by its canonical hash. Objects that are not in
+ * the table of known objects are simulated on their own once to find their period, and
+ * the result is remembered for the next census.
+ *
+ * Boards are always traced and objects simulated with Conway's Life (B3/S23), since the
+ * table of known objects is for that rule. A board that runs another rule gets no census.
+ */
+public final class Census {
+
+    private static final int MAX_PERIOD = 60;
+    private static final int MAX_SIMULATED_SIZE = 64;
+    // Long enough for the pieces of period 2, 3 and 4 oscillators to meet, short enough that spaceships do not get far
+    private static final int GROUP_GENERATIONS = 12;
+    // Still lifes with more 4-connected pieces than this are not split
+    private static final int MAX_SPLIT_PIECES = 12;
+    private static final Map<Long, String> NAMES = new ConcurrentHashMap<>();
+    private static final Map<Long, List<String>> PARTS = new ConcurrentHashMap<>();
+
+    static {
+        known("block", "oo", "oo");
+        known("beehive", ".oo.", "o..o", ".oo.");
+        known("loaf", ".oo.", "o..o", ".o.o", "..o.");
+        known("boat", "oo.", "o.o", ".o.");
+        known("ship", "oo.", "o.o", ".oo");
+        known("tub", ".o.", "o.o", ".o.");
+        known("pond", ".oo.", "o..o", "o..o", ".oo.");
+        known("barge", ".o..", "o.o.", ".o.o", "..o.");
+        known("long boat", "oo..", "o.o.", ".o.o", "..o.");
+        known("blinker", "ooo");
+        known("toad", ".ooo", "ooo.");
+        known("beacon", "oo..", "o...", "...o", "..oo");
+        known("glider", ".o.", "..o", "ooo");
+        known("lightweight spaceship", ".o..o", "o....", "o...o", "oooo.");
+        known("middleweight spaceship", "..o...", "o...o.", ".....o", "o....o", ".ooooo");
+    }
+
+    private final Map<String, Integer> counts;
+    private final int objects;
+
+    private Census(Map<String, Integer> counts, int objects) {
+        this.counts = counts;
+        this.objects = objects;
+    }
+
+    /**
+     * Must be called from the thread that updates the field, or while it is not updated.
+     */
+    public static Census take(Field field) {
+        return take(field.getRows(), field.getWidth(), field.getHeight(), field.getWordsPerRow());
+    }
+
+    /**
+     * @param board Packed rows, bits past width must be 0
+     * @param width Width of the board
+     * @param height Height of the board
+     * @param wordsPerRow Number of longs in each row of board
+     * @return The census of all objects on the board
+     */
+    public static Census take(long[] board, int width, int height, int wordsPerRow) {
+        long[] traces = getTraces(board, width, height, wordsPerRow);
+        Runs runs = new Runs();
+        int previousRow = 0;
+        for (int y = 0; y < height; y++) {
+            int currentRow = runs.size;
+            runs.addRow(traces, y * wordsPerRow, wordsPerRow, y);
+            runs.connect(previousRow, currentRow, runs.size);
+            previousRow = currentRow;
+        }
+
+        // Give every root a component index, then bucket the runs by component
+        int[] component = new int[runs.size];
+        int components = 0;
+        for (int i = 0; i < runs.size; i++) {
+            int root = runs.find(i);
+            component[i] = root == i ? components++ : component[root];
+        }
+        int[] first = new int[components + 1];
+        for (int i = 0; i < runs.size; i++) {
+            first[component[i] + 1]++;
+        }
+        for (int i = 0; i < components; i++) {
+            first[i + 1] += first[i];
+        }
+        int[] order = new int[runs.size];
+        int[] next = Arrays.copyOf(first, components);
+        for (int i = 0; i < runs.size; i++) {
+            order[next[component[i]]++] = i;
+        }
+
+        Map<String, Integer> counts = new TreeMap<>();
+        int objects = 0;
+        for (int c = 0; c < components; c++) {
+            List<Vec2> points = new ArrayList<>();
+            for (int k = first[c]; k < first[c + 1]; k++) {
+                int run = order[k];
+                int offset = runs.row[run] * wordsPerRow;
+                for (int x = runs.start[run]; x <= runs.end[run]; x++) {
+                    if ((board[offset + (x >>> 6)] >>> x & 1) != 0) points.add(new Vec2(x, runs.row[run]));
+                }
+            }
+            for (String name : identify(points)) {
+                counts.merge(name, 1, Integer::sum);
+                objects++;
+            }
+        }
+        return new Census(counts, objects);
+    }
+
+    /**
+     * @return Packed rows of every cell that is alive on the board or in one of the next GROUP_GENERATIONS generations
+     */
+    private static long[] getTraces(long[] board, int width, int height, int wordsPerRow) {
+        long[] traces = Arrays.copyOf(board, wordsPerRow * height);
+        if (wordsPerRow == 0 || height == 0) return traces;
+        BitField field = new BitField(width, height);
+        long[] row = new long[wordsPerRow];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(board, y * wordsPerRow, row, 0, wordsPerRow);
+            field.setRow(y, row);
+        }
+        for (int generation = 0; generation < GROUP_GENERATIONS; generation++) {
+            field.update();
+            long[] rows = field.getRows();
+            for (int i = 0; i < traces.length; i++) {
+                traces[i] |= rows[i];
+            }
+        }
+        return traces;
+    }
+
+    /**
+     * @param points Live cells of a component
+     * @return Names of the objects in it, more than one if it is a pseudo still life
+     */
+    private static List<String> identify(List<Vec2> points) {
+        Shape shape = new Shape(points);
+        String name = classify(shape);
+        if (!name.startsWith("xs")) return Collections.singletonList(name);
+        return PARTS.computeIfAbsent(shape.getCanonicalHash(), hash -> {
+            List<String> names = new ArrayList<>();
+            for (List<Vec2> part : split(getPieces(points))) {
+                names.add(part.size() == points.size() ? name : classify(new Shape(part)));
+            }
+            return names;
+        });
+    }
+
+    /**
+     * @param pieces The 4-connected pieces of a still life
+     * @return The still life split into the smallest groups of pieces that are still lifes on their own
+     *
+     * Every way of splitting the pieces in two is tried, and both halves are split further.
+     * A still life that can not be split this way is a strict still life and is returned whole.
+     */
+    private static List<List<Vec2>> split(List<List<Vec2>> pieces) {
+        int count = pieces.size();
+        if (count > 1 && count <= MAX_SPLIT_PIECES) {
+            // The first piece is always in the part, the bits of mask say which other pieces are
+            for (int mask = 0; mask < (1 << (count - 1)) - 1; mask++) {
+                List<List<Vec2>> part = new ArrayList<>(), rest = new ArrayList<>();
+                part.add(pieces.get(0));
+                for (int i = 1; i < count; i++) {
+                    ((mask >>> (i - 1) & 1) != 0 ? part : rest).add(pieces.get(i));
+                }
+                if (isStill(part) && isStill(rest)) {
+                    List<List<Vec2>> parts = new ArrayList<>(split(part));
+                    parts.addAll(split(rest));
+                    return parts;
+                }
+            }
+        }
+        List<Vec2> whole = new ArrayList<>();
+        for (List<Vec2> piece : pieces) {
+            whole.addAll(piece);
+        }
+        return Collections.singletonList(whole);
+    }
+
+    /**
+     * @return The 4-connected pieces of the cells
+     */
+    private static List<List<Vec2>> getPieces(List<Vec2> points) {
+        Grid grid = new Grid(Collections.singletonList(points));
+        int[][] piece = new int[grid.height][grid.width];
+        List<List<Vec2>> pieces = new ArrayList<>();
+        for (Vec2 point : points) {
+            int x = point.x - grid.left, y = point.y - grid.top;
+            if (piece[y][x] != 0) continue;
+            List<Vec2> cells = new ArrayList<>();
+            pieces.add(cells);
+            piece[y][x] = pieces.size();
+            List<Vec2> stack = new ArrayList<>();
+            stack.add(point);
+            while (!stack.isEmpty()) {
+                Vec2 cell = stack.remove(stack.size() - 1);
+                cells.add(cell);
+                for (int d = 0; d < 4; d++) {
+                    int nx = cell.x - grid.left + (d == 0 ? 1 : d == 1 ? -1 : 0);
+                    int ny = cell.y - grid.top + (d == 2 ? 1 : d == 3 ? -1 : 0);
+                    if (grid.get(nx, ny) && piece[ny][nx] == 0) {
+                        piece[ny][nx] = pieces.size();
+                        stack.add(new Vec2(nx + grid.left, ny + grid.top));
+                    }
+                }
+            }
+        }
+        return pieces;
+    }
+
+    /**
+     * @return Whether the cells of the pieces, alone on an empty board, stay the same in the next generation
+     */
+    private static boolean isStill(List<List<Vec2>> pieces) {
+        Grid grid = new Grid(pieces);
+        for (int y = -1; y <= grid.height; y++) {
+            for (int x = -1; x <= grid.width; x++) {
+                int neighbors = 0;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        if ((dx != 0 || dy != 0) && grid.get(x + dx, y + dy)) neighbors++;
+                    }
+                }
+                boolean alive = grid.get(x, y);
+                if (alive != (neighbors == 3 || (alive && neighbors == 2))) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param shape An object, translated to the origin
+     * @return Name of the object. Unknown objects are named by their kind and canonical hash:
+     * xs(cells) for still lifes, xp(period) for oscillators and xq(period) for spaceships.
+     */
+    public static String classify(Shape shape) {
+        long hash = shape.getCanonicalHash();
+        String name = NAMES.get(hash);
+        if (name == null) {
+            name = simulate(shape);
+            NAMES.putIfAbsent(hash, name);
+        }
+        return name;
+    }
+
+    /**
+     * Run the object on its own until it comes back to its first phase.
+     * The field is padded so that spaceships have room to move for MAX_PERIOD generations.
+     */
+    private static String simulate(Shape shape) {
+        String suffix = "_" + Long.toHexString(shape.getCanonicalHash());
+        if (shape.getWidth() > MAX_SIMULATED_SIZE || shape.getHeight() > MAX_SIMULATED_SIZE) {
+            return "large" + suffix;
+        }
+
+        int padding = MAX_PERIOD / 2 + 2;
+        Field field = new Field(shape.getWidth() + 2 * padding, shape.getHeight() + 2 * padding);
+        field.putShape(padding + shape.getMiddle().x, padding + shape.getMiddle().y, shape);
+        Vec2 start = origin(field);
+
+        for (int period = 1; period <= MAX_PERIOD; period++) {
+            field.update();
+            Vec2 position = origin(field);
+            if (position == null) {
+                return "dies" + suffix;
+            }
+            if (field.getShape(0, 0, field.getWidth(), field.getHeight()).equals(shape)) {
+                boolean moved = position.x != start.x || position.y != start.y;
+                if (moved) return "xq" + period + suffix;
+                return period == 1 ? "xs" + shape.getCellCount() + suffix : "xp" + period + suffix;
+            }
+        }
+        return "unstable" + suffix;
+    }
+
+    /**
+     * @return Top left corner of the bounding box of all life on the field, null if there is none
+     */
+    private static Vec2 origin(Field field) {
+        long[] rows = field.getRows();
+        int words = field.getWordsPerRow();
+        int minX = Integer.MAX_VALUE, minY = -1;
+        for (int y = 0; y < field.getHeight(); y++) {
+            for (int w = 0; w < words; w++) {
+                long word = rows[y * words + w];
+                if (word != 0) {
+                    if (minY < 0) minY = y;
+                    minX = Math.min(minX, (w << 6) + Long.numberOfTrailingZeros(word));
+                }
+            }
+        }
+        return minY < 0 ? null : new Vec2(minX, minY);
+    }
+
+    /**
+     * @param name Name of the object
+     * @param rows The first phase of the object, 'o' for a live cell
+     *
+     * Simulate the object and give every phase of it the name.
+     */
+    private static void known(String name, String... rows) {
+        List<Vec2> points = new ArrayList<>();
+        for (int y = 0; y < rows.length; y++) {
+            for (int x = 0; x < rows[y].length(); x++) {
+                if (rows[y].charAt(x) == 'o') points.add(new Vec2(x, y));
+            }
+        }
+        Shape shape = new Shape(points);
+        int padding = MAX_PERIOD / 2 + 2;
+        Field field = new Field(shape.getWidth() + 2 * padding, shape.getHeight() + 2 * padding);
+        field.putShape(padding + shape.getMiddle().x, padding + shape.getMiddle().y, shape);
+
+        Shape phase = shape;
+        for (int period = 0; period < MAX_PERIOD && !phase.isEmpty(); period++) {
+            NAMES.put(phase.getCanonicalHash(), name);
+            field.update();
+            phase = field.getShape(0, 0, field.getWidth(), field.getHeight());
+            if (phase.equals(shape)) break;
+        }
+    }
+
+    /**
+     * @return Number of objects of every kind, sorted by name
+     */
+    public Map<String, Integer> getCounts() {
+        return counts;
+    }
+
+    public int getObjectCount() {
+        return objects;
+    }
+
+    /**
+     * @return A hash of the counts. Boards with the same objects have the same census hash.
+     */
+    public long getHash() {
+        long hash = 0;
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            hash = hash * 31 + entry.getKey().hashCode();
+            hash = hash * 31 + entry.getValue();
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            builder.append(entry.getValue()).append(' ').append(entry.getKey()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * The cells of some pieces in their bounding box.
+     */
+    private static class Grid {
+        final int left, top, width, height;
+        final boolean[][] cells;
+
+        Grid(List<List<Vec2>> pieces) {
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+            for (List<Vec2> piece : pieces) {
+                for (Vec2 point : piece) {
+                    minX = Math.min(minX, point.x);
+                    minY = Math.min(minY, point.y);
+                    maxX = Math.max(maxX, point.x);
+                    maxY = Math.max(maxY, point.y);
+                }
+            }
+            left = minX;
+            top = minY;
+            width = maxX - minX + 1;
+            height = maxY - minY + 1;
+            cells = new boolean[height][width];
+            for (List<Vec2> piece : pieces) {
+                for (Vec2 point : piece) {
+                    cells[point.y - top][point.x - left] = true;
+                }
+            }
+        }
+
+        /**
+         * @return Whether the cell at (x, y) inside the box is alive, false outside of it
+         */
+        boolean get(int x, int y) {
+            return x >= 0 && y >= 0 && x < width && y < height && cells[y][x];
+        }
+    }
+
+    /**
+     * Horizontal runs of live cells in a union-find forest.
+     * Runs are added row by row, from left to right.
+     */
+    private static class Runs {
+        int[] row = new int[64];
+        int[] start = new int[64];
+        int[] end = new int[64];
+        int[] parent = new int[64];
+        int size = 0;
+
+        /**
+         * Add the runs of one row. Runs that cross a word boundary are joined.
+         */
+        void addRow(long[] board, int rowStart, int wordsPerRow, int y) {
+            int first = size;
+            for (int w = 0; w < wordsPerRow; w++) {
+                long word = board[rowStart + w];
+                while (word != 0) {
+                    int bit = Long.numberOfTrailingZeros(word);
+                    int length = Long.numberOfTrailingZeros(~(word >>> bit));
+                    int x0 = (w << 6) + bit, x1 = x0 + length - 1;
+                    if (size > first && end[size - 1] == x0 - 1) {
+                        end[size - 1] = x1;
+                    } else {
+                        add(y, x0, x1);
+                    }
+                    word = length == 64 ? 0 : word & ~(((1L << length) - 1) << bit);
+                }
+            }
+        }
+
+        private void add(int y, int x0, int x1) {
+            if (size == row.length) {
+                int capacity = size * 2;
+                row = Arrays.copyOf(row, capacity);
+                start = Arrays.copyOf(start, capacity);
+                end = Arrays.copyOf(end, capacity);
+                parent = Arrays.copyOf(parent, capacity);
+            }
+            row[size] = y;
+            start[size] = x0;
+            end[size] = x1;
+            parent[size] = size;
+            size++;
+        }
+
+        /**
+         * Union every run in [current, last) with the runs in [previous, current) it touches,
+         * diagonals included. Both rows are sorted, so one pass over each is enough.
+         */
+        void connect(int previous, int current, int last) {
+            int j = previous;
+            for (int i = current; i < last; i++) {
+                while (j < current && end[j] < start[i] - 1) j++;
+                for (int k = j; k < current && start[k] <= end[i] + 1; k++) {
+                    union(i, k);
+                }
+            }
+        }
+
+        int find(int i) {
+            while (parent[i] != i) {
+                parent[i] = parent[parent[i]];
+                i = parent[i];
+            }
+            return i;
+        }
+
+        /**
+         * The root is always the smaller index, so roots are the first run of their component.
+         */
+        void union(int a, int b) {
+            int rootA = find(a), rootB = find(b);
+            if (rootA < rootB) parent[rootB] = rootA;
+            else if (rootB < rootA) parent[rootA] = rootB;
+        }
+    }
+}
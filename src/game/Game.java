@@ -1,14 +1,23 @@
 package game;
 
+import utils.MouseHelper;
 import utils.MouseMode;
 import utils.Setting;
+import utils.Viewport;
+import utils.WindowUtils;
 import windows.GameFrame;
 
-import javax.swing.*;
 import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseAdapter;
+import java.awt.image.BufferStrategy;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -27,18 +36,28 @@ import java.util.logging.Logger;
  * Start/Stop simulation:     Space
  * Clear board:               C
  * Fast Mode:                 F
+ * Count objects (census):    N
+ * Heat map:                  H
+ * Record a GIF:              R (press again to stop)
+ * Record PNG files:          P (press again to stop)
+ * Export the board as PNG:   E
+ * Zoom:                      Ctrl + Mouse wheel
+ * Move the view:             Drag with the middle mouse button
  *
  * In Tilemode (Default)
  * Create life:               Left click  (hold and drag to create more)
  * Kill life:                 Right click (hold and drag to kill more)
  * Change simulation speed:   Right/Left arrow keys
  * Simulate one generation:   Up arrow key
+ * Zoom:                      Mouse wheel
  *
  * In Shapemode
  * Save shapes:               Mark area using Right mouse button
  * Place shapes:              Left click
  * Cycle shapes:              Left/Right arrow keys
  * Rotate shapes:             Up arrow key
+ * Mirror shapes:             M
+ * Find shape on the board:   S (I to only find isolated shapes)
  * Delete shapes:             D
  *
  * Version history:
@@ -46,40 +65,78 @@ import java.util.logging.Logger;
  * 1.0.1: Fixed the game crashing at "high" loads and if sleep time was negative
  * 1.1: Added saving, printing and rotation of shapes and restructured the program which led to better performance
  * 1.2: Refactored all code and changed the controls. Added a fast mode and more options for rendering.
+ * 1.3: Shapes are stored as bitmaps with cached orientations and can be mirrored. Added searching for shapes and a census.
+ * 1.4: The view can be zoomed and moved, so fields can be larger than the screen.
+ * 1.5: Frames are shown with active rendering instead of repaint(). Added a heat map, recording and exporting.
+ * 1.6: The game loop is paced by a Scheduler with deadlines for generations and frames instead of Thread.sleep.
+ *
+ * Rendering is active: the game loop draws every frame into the back buffer of a
+ * BufferStrategy and shows it right away, instead of asking Swing to repaint later.
+ * Frames are therefore never coalesced or dropped by the event queue, and on systems
+ * that support it the buffers are accelerated surfaces that are flipped, not copied.
+ *
+ * Only the game loop thread touches the field. Key and mouse handlers run on the EDT, so
+ * everything they do to the board, from setting a cell to stepping a generation, is handed
+ * to the loop with runOnLoop, which runs it between two generations and before the next frame.
  */
 
-public class Game extends JComponent {
+public class Game extends Canvas {
 
     private static final Logger LOGGER = Logger.getLogger(Game.class.getName());
     private static final long FPS = 30;
-    private static final long MILLION = 1000000;
     private static final long BILLION = 1000000000;
     private static final int UPS_SOFT_CAP = 0; // Increase this to allow placing while simulating (unsafe)
-    private static final int UPS_HARD_CAP = 1000;
-
-    private long updateTime;
+    private static final int UPS_HARD_CAP = 100000;
+    private static final int UPS_STEPS = 10; // Above this the speed changes by a tenth per key press
+    private static final int RECORD_INTERVAL = 1; // Record every generation
+    private static final Recorder.Policy RECORD_POLICY = Recorder.Policy.THROTTLE; // Or DROP to keep the speed
+    private static final String RECORD_PATH = "recordings";
+    private static final String EXPORT_PATH = "exports";
+    private static final int MAX_EXPORT_SIDE = 1 << 14; // Larger boards are exported with one pixel per cell
+
+    private final Queue<Runnable> loopTasks = new ConcurrentLinkedQueue<>();
+    private Scheduler scheduler;
     private long ups;
-    private boolean paused;
+    private volatile boolean paused;
+    private volatile boolean exporting;
     private boolean tileMode;
-    private boolean fastMode;
+    private volatile boolean fastMode;
+    private boolean searching;
+    private boolean isolatedSearch;
     private Shape currentShape;
+    private volatile Recorder recorder;
     private GameFrame gameFrame;
     private Field field;
     private Renderer renderer;
+    private Viewport viewport;
+    private List<Rectangle> matches;
+    private Shape searchedShape;
+    private boolean searchedIsolated;
+    private int searchedChanges;
     private ShapeHandler shapeHandler;
     private MouseMode tileMouse, shapeMouse;
     private KeyListener keyListener;
     private Setting setting;
+    private StringBuilder title;
 
     public Game(Setting setting) {
-        this.setting = setting;
+        Rule rule = Rule.parse(setting.rule, setting.neighborhood);
+        // A rule can name its own neighborhood, and that is the one the board must be drawn with
+        this.setting = new Setting(setting.width, setting.height, setting.tileSize, setting.gridWidth,
+                setting.rule, rule.getNeighborhood());
         ups = 10;
         paused = true;
         tileMode = true;
         fastMode = false;
+        searching = false;
+        isolatedSearch = false;
+        matches = Collections.emptyList();
+        title = new StringBuilder();
         currentShape = Shape.EMPTY;
-        field = new Field(setting.width, setting.height);
-        renderer = new Renderer(setting);
+        scheduler = new Scheduler(BILLION / ups, BILLION / FPS);
+        field = new Field(setting.width, setting.height, rule);
+        viewport = new Viewport(this.setting, WindowUtils.getMaximumViewSize());
+        renderer = new Renderer(field, viewport);
         shapeHandler = new ShapeHandler();
         setupListeners();
     }
@@ -87,43 +144,52 @@ public class Game extends JComponent {
     /**
      * Game loop
      * This function starts the game and updates it
+     *
+     * Every pass runs the generations the Scheduler says are due, draws a frame if one is due
+     * and otherwise parks until the next deadline. In fast mode generations are run until the next frame.
      */
     public void start() {
         gameFrame.pack();
-        updateTime = BILLION / ups;
-        long frameTime = 1000 / FPS;
-        long lastUpdate = System.nanoTime();
-        boolean running = true;
-
-        while (running) {
-            long frameStart = System.nanoTime();
-
-            while (lastUpdate + updateTime < frameStart) {
-                lastUpdate += updateTime;
-                if (!paused) {
+        createStrategy();
+        scheduler.start();
+
+        while (!Thread.currentThread().isInterrupted()) {
+            runLoopTasks();
+            long now = System.nanoTime();
+            boolean holding = paused || exporting;
+            if (holding) {
+                scheduler.idle(now);
+            } else {
+                int batch = scheduler.getBatch(now, fastMode);
+                for (int i = 0; i < batch; i++) {
                     gameUpdate();
                 }
-            }
-            while (!paused && fastMode && frameTime - (System.nanoTime() - frameStart) / MILLION > 0) {
-                gameUpdate();
+                scheduler.ran(batch, System.nanoTime() - now);
             }
 
-            render();
-
-            long frameEnd = System.nanoTime();
-
-            long sleepTime = (int) (frameTime - (frameEnd - frameStart) / MILLION);
+            now = System.nanoTime();
+            if (scheduler.isFrameDue(now)) {
+                render();
+                scheduler.framePresented(System.nanoTime());
+            } else if (holding || !fastMode) {
+                scheduler.park(!holding);
+            }
+        }
+        LOGGER.log(Level.INFO, "Game loop interrupted");
+    }
 
-            if (sleepTime < 0)
-                continue;
+    /**
+     * @param task Something to run on the game loop thread, between two generations
+     */
+    private void runOnLoop(Runnable task) {
+        loopTasks.add(task);
+        scheduler.wake();
+    }
 
-            try {
-                Thread.sleep(sleepTime);
-            }
-            catch (InterruptedException e) {
-                LOGGER.log(Level.SEVERE, e.toString(), e);
-                running = false;
-            }
+    private void runLoopTasks() {
+        Runnable task;
+        while ((task = loopTasks.poll()) != null) {
+            task.run();
         }
     }
 
@@ -132,7 +198,12 @@ public class Game extends JComponent {
      * The game is not that complicated so only the field needs to be updated.
      */
     private void gameUpdate() {
+        Recorder recorder = this.recorder;
+        if (recorder != null && !recorder.isReady()) return;
         field.update();
+        if (recorder != null) {
+            recorder.onGeneration();
+        }
     }
 
     /**
@@ -140,13 +211,69 @@ public class Game extends JComponent {
      * Some things should not be drawn at all times. Hence the need for multiple draw calls.
      */
     private void render() {
-        renderer.clear();
-        renderer.drawGridlines();
-        renderer.drawShapeOutline(currentShape, shapeMouse.getMouseHelper().getPos());
+        renderer.drawBackground();
+        MouseHelper mouse = shapeMouse.getMouseHelper();
+        renderer.drawShapeOutline(currentShape, mouse.getX(), mouse.getY());
         renderer.drawActiveTiles(field);
-        if (!tileMode)
+        if (!tileMode) {
             renderer.drawMarking(shapeMouse.getMouseHelper());
-        repaint();
+            if (searching) {
+                findMatches();
+                renderer.drawMatches(matches);
+            }
+        }
+        present();
+    }
+
+    /**
+     * Search the board for the current shape, unless neither the board nor the search
+     * has changed since the last search. A paused board is then only searched once.
+     */
+    private void findMatches() {
+        int changes = field.getChangeCount();
+        if (currentShape == searchedShape && isolatedSearch == searchedIsolated && changes == searchedChanges) return;
+        matches = PatternSearch.find(field, currentShape, isolatedSearch);
+        searchedShape = currentShape;
+        searchedIsolated = isolatedSearch;
+        searchedChanges = changes;
+    }
+
+    /**
+     * Create the buffers used for active rendering. Page flipping in video memory is
+     * asked for first; if it is not supported AWT picks the best strategy it can.
+     */
+    private void createStrategy() {
+        setIgnoreRepaint(true);
+        BufferCapabilities flipping = new BufferCapabilities(
+                new ImageCapabilities(true),
+                new ImageCapabilities(true),
+                BufferCapabilities.FlipContents.UNDEFINED
+        );
+        try {
+            createBufferStrategy(2, flipping);
+        } catch (AWTException e) {
+            LOGGER.log(Level.INFO, "Page flipping not available: " + e);
+            createBufferStrategy(2);
+        }
+    }
+
+    /**
+     * Copy the rendered frame into the back buffer and show it.
+     * The loops redraw the frame if the accelerated buffers were lost in the meantime.
+     * Syncing the toolkit makes sure the frame is sent to the screen now and not batched.
+     */
+    private void present() {
+        BufferStrategy strategy = getBufferStrategy();
+        if (strategy == null) return;
+        do {
+            do {
+                Graphics g = strategy.getDrawGraphics();
+                g.drawImage(renderer.getImage(), 0, 0, null);
+                g.dispose();
+            } while (strategy.contentsRestored());
+            strategy.show();
+        } while (strategy.contentsLost());
+        Toolkit.getDefaultToolkit().sync();
     }
 
     /**
@@ -175,6 +302,7 @@ public class Game extends JComponent {
                 // Global keys. Used to start/stop simulation and change between modes
                 if (key == KeyEvent.VK_SPACE) {
                     paused = !paused;
+                    scheduler.wake();
                     updateFrameTitle();
                 }
                 else if (key == KeyEvent.VK_SHIFT) {
@@ -182,21 +310,43 @@ public class Game extends JComponent {
                 }
                 else if (key == KeyEvent.VK_C) {
                     if (canPlaceTile()) {
-                        field.reset();
-                        updateFrameTitle();
+                        runOnLoop(field::reset);
                     }
                 }
                 else if (key == KeyEvent.VK_F) {
                     fastMode = !fastMode;
+                    scheduler.wake();
                     updateFrameTitle();
                 }
+                else if (key == KeyEvent.VK_H) {
+                    runOnLoop(() -> {
+                        field.setHeatEnabled(!field.isHeatEnabled());
+                        renderer.setHeatMode(field.isHeatEnabled());
+                    });
+                }
+                else if (key == KeyEvent.VK_R) {
+                    toggleRecording(Recorder.Format.GIF);
+                }
+                else if (key == KeyEvent.VK_P) {
+                    toggleRecording(Recorder.Format.PNG);
+                }
+                else if (key == KeyEvent.VK_E) {
+                    runOnLoop(Game.this::exportImage);
+                }
+                else if (key == KeyEvent.VK_N) {
+                    if (field.getRule().isLife()) {
+                        runOnLoop(Game.this::takeCensus);
+                    } else {
+                        WindowUtils.showNotice("No census", "Objects can only be counted with the rule B3/S23");
+                    }
+                }
 
                 // Keybindings in tile mode
                 if (tileMode) {
                     if (key == KeyEvent.VK_UP) {
-                        if (paused) {
-                            gameUpdate();
-                        }
+                        runOnLoop(() -> {
+                            if (paused && !exporting) gameUpdate();
+                        });
                     }
                     else if (key == KeyEvent.VK_LEFT) {
                         changeUps(false);
@@ -211,6 +361,15 @@ public class Game extends JComponent {
                         if (key == KeyEvent.VK_UP) {
                             currentShape = currentShape.getRotation();
                         }
+                        else if (key == KeyEvent.VK_M) {
+                            currentShape = currentShape.getMirror();
+                        }
+                        else if (key == KeyEvent.VK_S) {
+                            toggleSearch(false);
+                        }
+                        else if (key == KeyEvent.VK_I) {
+                            toggleSearch(true);
+                        }
                         else if (key == KeyEvent.VK_LEFT) {
                             shapeHandler.cycleBackward();
                             currentShape = shapeHandler.getCurrentShape();
@@ -269,27 +428,33 @@ public class Game extends JComponent {
      * Create MouseListeners for tileMode and shapeMode
      */
     private void setupMouseModes() {
-        tileMouse = new MouseMode(setting) {
+        tileMouse = new MouseMode(viewport) {
             @Override
             public void onPress(int x, int y) {
                 if (canPlaceTile() && (isLeftPressed() || isRightPressed())) {
-                    field.setTile(x, y, isLeftDown());
+                    setTile(x, y, isLeftDown());
                 }
             }
 
             @Override
             public void onDrag(int x, int y) {
                 if (canPlaceTile() && (isLeftDown() || isRightDown())) {
-                    field.setTile(x, y, isLeftDown());
+                    setTile(x, y, isLeftDown());
                 }
             }
+
+            @Override
+            public void onWheel(int dir) {
+                mouseHelper.zoom(-dir);
+            }
         };
 
-        shapeMouse = new MouseMode(setting) {
+        shapeMouse = new MouseMode(viewport) {
             @Override
             public void onPress(int x, int y) {
                 if (canPlaceTile() && isLeftPressed()) {
-                    field.putShape(x, y, currentShape);
+                    Shape shape = currentShape;
+                    runOnLoop(() -> field.putShape(x, y, shape));
                 }
                 else if (isRightPressed()) {
                     mouseHelper.startMarking();
@@ -301,9 +466,15 @@ public class Game extends JComponent {
             public void onRelease(int x, int y) {
                 if (isRightReleased()) {
                     mouseHelper.endMarking();
-                    shapeHandler.addShape(field.getShape(mouseHelper.getMarking()));
-                    shapeHandler.cycleToEnd();
-                    currentShape = shapeHandler.getCurrentShape();
+                    // The marking is reused by the helper, so it is copied before the loop gets to it
+                    Rectangle marking = new Rectangle(mouseHelper.getMarking());
+                    runOnLoop(() -> {
+                        Shape shape = field.getShape(marking.x, marking.y, marking.width, marking.height);
+                        EventQueue.invokeLater(() -> {
+                            shapeHandler.addShape(shape);
+                            currentShape = shapeHandler.getCurrentShape();
+                        });
+                    });
                 }
             }
 
@@ -318,17 +489,122 @@ public class Game extends JComponent {
         };
     }
 
+    /**
+     * @param isolated Whether matches must have a dead border
+     *
+     * Start highlighting every placement of the current shape, or stop if that search is already shown.
+     */
+    private void toggleSearch(boolean isolated) {
+        searching = !(searching && isolatedSearch == isolated);
+        isolatedSearch = isolated;
+        if (!searching) {
+            matches = Collections.emptyList();
+            searchedShape = null;
+        }
+        updateFrameTitle();
+    }
+
+    /**
+     * @param format Format to record in
+     *
+     * Start recording to a new file in RECORD_PATH, or stop the recording that is running.
+     * The recorder is started on the game loop, since it copies the field right away.
+     */
+    private void toggleRecording(Recorder.Format format) {
+        if (recorder != null) {
+            recorder.stop();
+            if (recorder.getDropped() > 0) {
+                LOGGER.log(Level.INFO, "Recording dropped " + recorder.getDropped() + " frames");
+            }
+            recorder = null;
+        }
+        else {
+            String name = "run-" + System.currentTimeMillis() + (format == Recorder.Format.GIF ? ".gif" : "");
+            File directory = new File(RECORD_PATH);
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                LOGGER.log(Level.SEVERE, "Could not create " + directory);
+                return;
+            }
+            Recorder started = new Recorder(field, new File(directory, name), format, RECORD_INTERVAL,
+                    setting.tileSize, RECORD_POLICY);
+            recorder = started;
+            runOnLoop(started::start);
+        }
+        updateFrameTitle();
+    }
+
+    /**
+     * Export the whole board to a PNG file in EXPORT_PATH.
+     * Runs on the game loop thread, between two generations.
+     *
+     * A background thread writes the file in strips straight from the packed rows of the field,
+     * so the board is not copied. Until it is done the game loop runs no generations and the
+     * board can not be edited, and frames keep being drawn.
+     */
+    private void exportImage() {
+        if (exporting) return;
+        File directory = new File(EXPORT_PATH);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            LOGGER.log(Level.SEVERE, "Could not create " + directory);
+            return;
+        }
+        File file = new File(directory, "board-" + System.currentTimeMillis() + ".png");
+        long[] rows = field.getRows();
+        int width = field.getWidth(), height = field.getHeight(), wordsPerRow = field.getWordsPerRow();
+        int side = Math.max(width, height);
+        int scale = side * setting.tileSize > MAX_EXPORT_SIDE ? 1 : setting.tileSize;
+        exporting = true;
+        new Thread(() -> {
+            try {
+                PngExporter.export(rows, width, height, wordsPerRow, file, scale);
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, e.toString(), e);
+                WindowUtils.showErrorDialog(e.toString());
+                return;
+            } finally {
+                exporting = false;
+                scheduler.wake();
+            }
+            WindowUtils.showNotice("Exported the board", file.getPath());
+        }, "Exporter").start();
+    }
+
+    /**
+     * Copy the board between two generations and count its objects on a background thread,
+     * since running the board on the side and simulating unknown objects can take a while.
+     * Runs on the game loop thread.
+     */
+    private void takeCensus() {
+        int width = field.getWidth(), height = field.getHeight(), wordsPerRow = field.getWordsPerRow();
+        long[] board = new long[wordsPerRow * height];
+        field.export(board);
+        new Thread(() -> {
+            Census census = Census.take(board, width, height, wordsPerRow);
+            WindowUtils.showNotice(census.getObjectCount() + " objects", census.toString());
+        }, "Census").start();
+    }
+
+    /**
+     * Set a cell on the game loop thread.
+     */
+    private void setTile(int x, int y, boolean alive) {
+        runOnLoop(() -> field.setTile(x, y, alive));
+    }
+
     private boolean canPlaceTile() {
-        return (ups < UPS_SOFT_CAP && !fastMode) || paused;
+        return ((ups < UPS_SOFT_CAP && !fastMode) || paused) && !exporting;
     }
 
     /**
      * @param increase If true, increase the updates per second. Otherwise decrease.
+     *
+     * Up to UPS_STEPS the speed changes by one, above that by about a tenth.
      */
     private void changeUps(boolean increase) {
-        int change = increase ? 1 : -1;
+        long step = Math.max(1, (increase ? ups : ups - 1) / UPS_STEPS);
+        long change = increase ? step : -step;
         ups = Math.max(1, Math.min(ups + change, UPS_HARD_CAP)); // Clamp ups between 1 and UPS_HARD_CAP
-        updateTime = BILLION / ups;
+        scheduler.setUpdateTime(BILLION / ups);
         updateFrameTitle();
     }
 
@@ -336,14 +612,19 @@ public class Game extends JComponent {
      * Set the frame title to a String with information about the game.
      */
     private void updateFrameTitle() {
-        gameFrame.setTitle(
-            String.format("%s - %s Updates / sec - %s",
-                    paused ? "Paused" : "Running",
-                    fastMode ? "Many" : String.valueOf(ups),
-                    tileMode ? "Tile mode" : "Shape mode")
-        );
+        title.setLength(0);
+        title.append(paused ? "Paused" : "Running").append(" - ");
+        if (fastMode) title.append("Many");
+        else title.append(ups);
+        title.append(" Updates / sec - ").append(tileMode ? "Tile mode" : "Shape mode");
+        if (searching) title.append(isolatedSearch ? " - Finding isolated" : " - Finding");
+        if (recorder != null) title.append(" - Recording");
+        gameFrame.setTitle(title.toString());
     }
 
+    /**
+     * Only used before the buffer strategy exists. After that every frame is presented by the game loop.
+     */
     public void paint(Graphics g) {
         g.drawImage(renderer.getImage(), 0, 0, null);
     }
@@ -1,9 +1,14 @@
 package game;
 
+import cluster.Coordinator;
+import cluster.Worker;
+import remote.StreamServer;
+import remote.Viewer;
 import utils.Setting;
 import windows.GameFrame;
 import windows.SettingsFrame;
 
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -12,26 +17,56 @@ import java.util.logging.Logger;
  *
  * Main entry point of the program.
  * Here the settings frame is first shown and then the game is started
+ *
+ * Run with "batch <soups> [density] [seed] [output file]" to search random soups without a window.
+ * Run with "cluster <shards x> <shards y> <width> <height> <generations> [density] [seed] [output png]"
+ * to simulate a random board split over several worker processes. "worker" is used by those processes.
+ * Run with "serve <width> <height> [port] [density] [seed] [updates per second]" to simulate a random board
+ * without a window and stream it, and with "view [host] [port]" to watch such a stream.
+ * Run with "offheap <width> <height> <generations> [density] [seed] [board file]" to run Life on a board
+ * outside the Java heap, too large for the window.
  */
 public final class Main {
 
     private static final Logger LOGGER = Logger.getLogger(Main.class.getName());
-    public static final int WAIT_TIME = 200;
 
     private Main() {}
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("batch")) {
+            SoupSearch.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("cluster")) {
+            Coordinator.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("worker")) {
+            Worker.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("serve")) {
+            StreamServer.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("view")) {
+            Viewer.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("offheap")) {
+            OffHeapRun.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         SettingsFrame settingsFrame = new SettingsFrame();
-        while (!settingsFrame.isDone()) {
-            try {
-                Thread.sleep(WAIT_TIME);
-            } catch (InterruptedException e) {
-                LOGGER.log(Level.SEVERE, e.toString(), e);
-                System.exit(0);
-            }
+        Setting setting = null;
+        try {
+            setting = settingsFrame.awaitSetting();
+        } catch (InterruptedException e) {
+            LOGGER.log(Level.SEVERE, e.toString(), e);
+            System.exit(0);
         }
         settingsFrame.dispose();
-        Setting setting = settingsFrame.getSetting();
         Game game = new Game(setting);
 
         new GameFrame(game);
@@ -0,0 +1,95 @@
+package game;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Headless mode that runs Conway's Life on a board kept outside the Java heap, see OffHeapField.
+ *
+ * A new board is filled with random cells, every cell alive with probability density.
+ * With a file the board is kept in a memory mapped file instead of direct memory, and a file
+ * that already holds a board of the same size is continued instead of filled, so a long run
+ * can be stopped and picked up again. The population is printed every REPORT_INTERVAL generations.
+ */
+public final class OffHeapRun {
+
+    private static final Logger LOGGER = Logger.getLogger(OffHeapRun.class.getName());
+    private static final int REPORT_INTERVAL = 100;
+    private static final String USAGE = "Usage: offheap <width> <height> <generations> [density] [seed] [board file]";
+
+    private OffHeapRun() {}
+
+    /**
+     * @param args width, height and generations, then optionally density, seed and board file
+     */
+    public static void run(String[] args) {
+        int width, height, generations;
+        double density;
+        long seed;
+        Path file;
+        try {
+            width = Integer.parseInt(args[0]);
+            height = Integer.parseInt(args[1]);
+            generations = Integer.parseInt(args[2]);
+            density = args.length > 3 ? Double.parseDouble(args[3]) : 0.5;
+            seed = args.length > 4 ? Long.parseLong(args[4]) : System.nanoTime();
+            file = args.length > 5 ? Paths.get(args[5]) : null;
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(USAGE);
+            return;
+        }
+        if (width <= 0 || height <= 0 || generations < 0) {
+            System.err.println(USAGE);
+            return;
+        }
+
+        try {
+            boolean existing = file != null && Files.exists(file) && Files.size(file) > 0;
+            try (OffHeapField field = file == null ? new OffHeapField(width, height) : new OffHeapField(width, height, file)) {
+                if (existing) {
+                    System.out.println("Continuing " + file + " with population " + field.getPopulation());
+                } else {
+                    seed(field, new SplittableRandom(seed), density);
+                }
+                long start = System.nanoTime();
+                for (int generation = 1; generation <= generations; generation++) {
+                    field.update();
+                    if (generation % REPORT_INTERVAL == 0 || generation == generations) {
+                        System.out.println(generation + "\t" + field.getPopulation());
+                    }
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%d generations of %dx%d in %.2f s: %.2f ms per generation%n",
+                        generations, width, height, seconds, seconds * 1000 / Math.max(1, generations));
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, e.toString(), e);
+        }
+    }
+
+    /**
+     * Fill the board a row at a time. Density 0.5 takes whole random words.
+     */
+    private static void seed(OffHeapField field, SplittableRandom random, double density) {
+        long[] row = new long[field.getWordsPerRow()];
+        for (int y = 0; y < field.getHeight(); y++) {
+            for (int w = 0; w < row.length; w++) {
+                if (density == 0.5) {
+                    row[w] = random.nextLong();
+                    continue;
+                }
+                long word = 0;
+                for (int bit = 0; bit < 64; bit++) {
+                    if (random.nextDouble() < density) word |= 1L << bit;
+                }
+                row[w] = word;
+            }
+            field.writeRow(y, row);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package game;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Finds every placement of a shape on the field, in all of its orientations.
+ *
+ * The search works on the packed rows of the field and tests 64 neighboring
+ * placements at once: for every cell of the pattern the matching board row is
+ * shifted into place and and-ed into a word where bit i means "the placement
+ * at x + i still matches". Rows of placements are searched in parallel.
+ *
+ * A normal match requires the cells inside the bounding box of the shape to be
+ * exactly the shape. An isolated match also requires the cells around the
+ * bounding box to be dead. Cells outside the field count as dead.
+ */
+public final class PatternSearch {
+
+    private PatternSearch() {}
+
+    /**
+     * @param field The field to search
+     * @param shape The shape to look for
+     * @param isolated If true the shape must have a dead border
+     * @return The bounding box of every match on the field
+     */
+    public static List<Rectangle> find(Field field, Shape shape, boolean isolated) {
+        return find(field.getRows(), field.getWidth(), field.getHeight(), field.getWordsPerRow(), shape, isolated);
+    }
+
+    /**
+     * @param board Packed rows to search, bits past width must be 0
+     * @param width Width of the board
+     * @param height Height of the board
+     * @param wordsPerRow Number of longs in each row of board
+     * @param shape The shape to look for
+     * @param isolated If true the shape must have a dead border
+     * @return The bounding box of every match on the board
+     */
+    public static List<Rectangle> find(long[] board, int width, int height, int wordsPerRow,
+                                       Shape shape, boolean isolated) {
+        if (shape.isEmpty()) return Collections.emptyList();
+
+        List<Pattern> patterns = new ArrayList<>();
+        List<Shape> seen = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Shape orientation = shape.getOrientation(i);
+            if (seen.contains(orientation)) continue; // Symmetric shapes would be found twice
+            seen.add(orientation);
+            if (orientation.getWidth() <= width && orientation.getHeight() <= height) {
+                patterns.add(new Pattern(orientation, isolated));
+            }
+        }
+
+        return IntStream.range(0, height)
+                .parallel()
+                .mapToObj(y -> findInRow(board, width, height, wordsPerRow, patterns, y))
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return All matches whose top edge is at row y
+     */
+    private static List<Rectangle> findInRow(long[] board, int width, int height, int wordsPerRow,
+                                             List<Pattern> patterns, int y) {
+        List<Rectangle> matches = null;
+        for (Pattern pattern : patterns) {
+            if (y + pattern.height > height) continue;
+            int lastX = width - pattern.width;
+            for (int x0 = 0; x0 <= lastX; x0 += 64) {
+                long match = lastX - x0 >= 63 ? -1L : (1L << (lastX - x0 + 1)) - 1;
+                for (int i = 0; i < pattern.dx.length && match != 0; i++) {
+                    int row = y + pattern.dy[i];
+                    long cells = row < 0 || row >= height
+                            ? 0
+                            : bitsAt(board, row * wordsPerRow, wordsPerRow, x0 + pattern.dx[i]);
+                    match &= pattern.alive[i] ? cells : ~cells;
+                }
+                while (match != 0) {
+                    if (matches == null) matches = new ArrayList<>();
+                    int x = x0 + Long.numberOfTrailingZeros(match);
+                    matches.add(new Rectangle(x, y, pattern.width, pattern.height));
+                    match &= match - 1;
+                }
+            }
+        }
+        return matches == null ? Collections.emptyList() : matches;
+    }
+
+    /**
+     * @param board Packed rows
+     * @param rowStart Index of the first word of the row
+     * @param wordsPerRow Number of longs in each row
+     * @param x Column of bit 0 of the result, may be negative
+     * @return The 64 cells of the row starting at x, cells outside the row are 0
+     */
+    private static long bitsAt(long[] board, int rowStart, int wordsPerRow, int x) {
+        if (x < 0) {
+            return x <= -64 ? 0 : board[rowStart] << -x;
+        }
+        int word = x >>> 6, shift = x & 63;
+        if (word >= wordsPerRow) return 0;
+        long bits = board[rowStart + word] >>> shift;
+        if (shift != 0 && word + 1 < wordsPerRow) {
+            bits |= board[rowStart + word + 1] << (64 - shift);
+        }
+        return bits;
+    }
+
+    /**
+     * One orientation of the shape as a list of cells to check, relative to the top left of the shape.
+     * Live cells come first since they are rarer on the board and end the search sooner.
+     */
+    private static class Pattern {
+        final int width, height;
+        final int[] dx, dy;
+        final boolean[] alive;
+
+        Pattern(Shape shape, boolean isolated) {
+            width = shape.getWidth();
+            height = shape.getHeight();
+            int border = isolated ? 1 : 0;
+            int count = (width + 2 * border) * (height + 2 * border);
+            dx = new int[count];
+            dy = new int[count];
+            alive = new boolean[count];
+
+            long[] rows = shape.getRows();
+            int words = shape.getWordsPerRow();
+            int live = 0, dead = shape.getCellCount();
+            for (int y = -border; y < height + border; y++) {
+                for (int x = -border; x < width + border; x++) {
+                    boolean inside = x >= 0 && x < width && y >= 0 && y < height;
+                    boolean set = inside && (rows[y * words + (x >>> 6)] & (1L << x)) != 0;
+                    int i = set ? live++ : dead++;
+                    dx[i] = x;
+                    dy[i] = y;
+                    alive[i] = set;
+                }
+            }
+        }
+    }
+}
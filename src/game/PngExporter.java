@@ -0,0 +1,195 @@
+package game;
+
+import java.awt.*;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes the whole field to a PNG file without ever having the whole image in memory.
+ *
+ * The image has two colors, so it is stored with one bit per pixel and a palette.
+ * The field is drawn a strip of up to STRIP_ROWS rows of cells at a time, straight from the
+ * packed rows, and every strip is deflated and written before the next one is drawn.
+ * The PNG file is written by hand: ImageIO only takes complete images.
+ * The memory used is one strip plus the deflater, whatever the size of the field.
+ */
+public final class PngExporter {
+
+    private static final Color BACKGROUND = Color.BLACK;
+    private static final Color TILE = Color.LIGHT_GRAY;
+    private static final int STRIP_ROWS = 64;
+    private static final int MAX_STRIP_BYTES = 1 << 22;
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+    private PngExporter() {}
+
+    /**
+     * @param field The field to export, which must not change until this returns
+     * @param file File to write the image to
+     * @param scale Size of a cell in pixels
+     */
+    public static void export(Field field, File file, int scale) throws IOException {
+        export(field.getRows(), field.getWidth(), field.getHeight(), field.getWordsPerRow(), file, scale);
+    }
+
+    /**
+     * @param rows Packed rows of a board, bit x % 64 of word x / 64 is the cell at x.
+     *             They are read while the file is written, so they must not change until this returns.
+     * @param width Width of the board
+     * @param height Height of the board
+     * @param wordsPerRow Number of longs in each row
+     * @param file File to write the image to
+     * @param scale Size of a cell in pixels
+     */
+    public static void export(long[] rows, int width, int height, int wordsPerRow, File file, int scale)
+            throws IOException {
+        if ((long) width * scale > Integer.MAX_VALUE || (long) height * scale > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Image would be too large: " + width + "x" + height + " at " + scale);
+        }
+        int imageWidth = width * scale, imageHeight = height * scale;
+        // A scanline is a filter byte followed by one bit per pixel
+        int lineLength = 1 + (imageWidth + 7) / 8;
+        int stripRows = (int) Math.max(1, Math.min(STRIP_ROWS, MAX_STRIP_BYTES / ((long) scale * lineLength)));
+        byte[] strip = new byte[stripRows * scale * lineLength];
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.write(SIGNATURE);
+            writeHeader(out, imageWidth, imageHeight);
+            writePalette(out);
+
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+            try (DeflaterOutputStream idat = new DeflaterOutputStream(new ChunkStream(out), deflater, CHUNK_SIZE)) {
+                for (int top = 0; top < height; top += stripRows) {
+                    int bottom = Math.min(height, top + stripRows);
+                    drawStrip(rows, wordsPerRow, top, bottom, scale, lineLength, strip);
+                    idat.write(strip, 0, (bottom - top) * scale * lineLength);
+                }
+            } finally {
+                deflater.end();
+            }
+            writeChunk(out, "IEND", new byte[0], 0);
+        }
+    }
+
+    /**
+     * Draw the cells of rows top to bottom as scanlines. PNG stores the leftmost pixel
+     * in the highest bit of a byte, the packed rows in the lowest, so bytes are reversed.
+     */
+    private static void drawStrip(long[] rows, int wordsPerRow, int top, int bottom, int scale,
+                                  int lineLength, byte[] strip) {
+        for (int y = top; y < bottom; y++) {
+            int line = (y - top) * scale * lineLength;
+            Arrays.fill(strip, line, line + lineLength, (byte) 0);
+            int offset = y * wordsPerRow;
+            if (scale == 1) {
+                for (int i = 0; i < lineLength - 1; i++) {
+                    int b = (int) (rows[offset + (i >>> 3)] >>> ((i & 7) << 3)) & 0xFF;
+                    strip[line + 1 + i] = (byte) (Integer.reverse(b) >>> 24);
+                }
+            } else {
+                for (int w = 0; w < wordsPerRow; w++) {
+                    long word = rows[offset + w];
+                    while (word != 0) {
+                        int x = (w << 6) + Long.numberOfTrailingZeros(word);
+                        for (int p = x * scale; p < (x + 1) * scale; p++) {
+                            strip[line + 1 + (p >>> 3)] |= 0x80 >>> (p & 7);
+                        }
+                        word &= word - 1;
+                    }
+                }
+                for (int i = 1; i < scale; i++) {
+                    System.arraycopy(strip, line, strip, line + i * lineLength, lineLength);
+                }
+            }
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out, int width, int height) throws IOException {
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 1;  // Bit depth
+        header[9] = 3;  // Color type: palette
+        // Compression, filter and interlace methods are all 0
+        writeChunk(out, "IHDR", header, header.length);
+    }
+
+    private static void writePalette(DataOutputStream out) throws IOException {
+        byte[] palette = {
+                (byte) BACKGROUND.getRed(), (byte) BACKGROUND.getGreen(), (byte) BACKGROUND.getBlue(),
+                (byte) TILE.getRed(), (byte) TILE.getGreen(), (byte) TILE.getBlue()
+        };
+        writeChunk(out, "PLTE", palette, palette.length);
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Collects the deflated data and writes it as IDAT chunks of at most CHUNK_SIZE bytes.
+     * Closing it writes the last chunk but leaves the file open.
+     */
+    private static class ChunkStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int size;
+
+        ChunkStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (size == buffer.length) flushChunk();
+            buffer[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (size == buffer.length) flushChunk();
+                int n = Math.min(len, buffer.length - size);
+                System.arraycopy(b, off, buffer, size, n);
+                size += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            if (size > 0) {
+                writeChunk(out, "IDAT", buffer, size);
+                size = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushChunk();
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package game;
+
+import org.w3c.dom.Node;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records a run of the field as an animated GIF or as numbered PNG files.
+ *
+ * The game loop only copies the packed rows of the field into a free frame and puts the
+ * frame on a queue, which is a single arraycopy. Encoder threads take frames from the
+ * queue, draw them and write them to disk, then hand the frame back to be reused.
+ * There is a fixed number of frames, so the queue is bounded and no memory is
+ * allocated per frame by the game loop.
+ *
+ * When the encoders fall behind there are no free frames. With Policy.DROP the
+ * generation is simply not recorded, with Policy.THROTTLE isReady() returns false
+ * and the game holds the simulation until a frame is free again. The game loop never
+ * waits on an encoder either way.
+ *
+ * PNG files are independent, so they are written by several threads. A GIF is one
+ * stream whose frames must come in order, so it is written by a single thread.
+ *
+ * start(), onGeneration() and isReady() are called by the thread that updates the field.
+ * stop() and the counters may be used from any thread.
+ */
+public class Recorder {
+
+    public enum Format { GIF, PNG }
+    public enum Policy { DROP, THROTTLE }
+
+    private static final Logger LOGGER = Logger.getLogger(Recorder.class.getName());
+    private static final Color BACKGROUND = Color.BLACK;
+    private static final Color TILE = Color.LIGHT_GRAY;
+    private static final int QUEUE_SIZE = 16;
+    private static final int MAX_FRAME_SIDE = 1024;
+    private static final int GIF_DELAY = 5; // In hundredths of a second
+
+    private final Field field;
+    private final File output;
+    private final Format format;
+    private final Policy policy;
+    private final int interval;
+    private final int scale;
+    private final int frameWidth, frameHeight;
+    private final BlockingQueue<Frame> free, queue;
+    private final Thread[] encoders;
+    private volatile boolean failed;
+    private int generations;
+    // Only changed by the thread that updates the field, volatile so the counts can be read from others
+    private volatile int captured, dropped;
+    private volatile boolean stopped;
+
+    /**
+     * @param field The field to record
+     * @param output The GIF file, or the directory for the PNG files
+     * @param format Format of the recording
+     * @param interval Record every interval:th generation
+     * @param tileSize Preferred size of a cell in pixels, made smaller for large fields
+     * @param policy What to do when the encoders can not keep up
+     */
+    public Recorder(Field field, File output, Format format, int interval, int tileSize, Policy policy) {
+        this.field = field;
+        this.output = output;
+        this.format = format;
+        this.interval = Math.max(1, interval);
+        this.policy = policy;
+        int side = Math.max(field.getWidth(), field.getHeight());
+        scale = Math.max(1, Math.min(tileSize, MAX_FRAME_SIDE / side));
+        frameWidth = field.getWidth() * scale;
+        frameHeight = field.getHeight() * scale;
+
+        int threads = format == Format.GIF ? 1 : Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        free = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        queue = new ArrayBlockingQueue<>(QUEUE_SIZE + threads);
+        int words = field.getRows().length;
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            free.add(new Frame(words));
+        }
+        encoders = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            encoders[i] = new Thread(format == Format.GIF ? this::encodeGif : this::encodePngs, "Recorder-" + i);
+        }
+    }
+
+    /**
+     * Start the encoders and record the field as it is now.
+     */
+    public void start() {
+        if (format == Format.PNG && !output.isDirectory() && !output.mkdirs()) {
+            LOGGER.log(Level.SEVERE, "Could not create " + output);
+            failed = true;
+            return;
+        }
+        for (Thread encoder : encoders) {
+            encoder.start();
+        }
+        capture();
+    }
+
+    /**
+     * Call after every generation of the field.
+     */
+    public void onGeneration() {
+        generations++;
+        if (generations % interval == 0) {
+            capture();
+        }
+    }
+
+    /**
+     * @return False if the simulation should wait before the next generation
+     */
+    public boolean isReady() {
+        return policy == Policy.DROP || stopped || failed || !free.isEmpty();
+    }
+
+    private void capture() {
+        if (stopped || failed) return;
+        Frame frame = free.poll();
+        if (frame == null) {
+            dropped++;
+            return;
+        }
+        long[] rows = field.getRows();
+        System.arraycopy(rows, 0, frame.rows, 0, rows.length);
+        frame.index = captured++;
+        queue.add(frame);
+    }
+
+    /**
+     * Stop recording. The encoders finish the frames that are queued and then close the output.
+     */
+    public synchronized void stop() {
+        if (stopped) return;
+        stopped = true;
+        for (int i = 0; i < encoders.length; i++) {
+            queue.add(Frame.END);
+        }
+    }
+
+    private void encodePngs() {
+        BufferedImage image = createImage();
+        try {
+            for (Frame frame = queue.take(); frame != Frame.END; frame = queue.take()) {
+                draw(frame, image);
+                File file = new File(output, String.format("frame%06d.png", frame.index));
+                free.add(frame);
+                if (!failed) {
+                    ImageIO.write(image, "png", file);
+                }
+            }
+        } catch (IOException e) {
+            failed = true;
+            LOGGER.log(Level.SEVERE, e.toString(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void encodeGif() {
+        BufferedImage image = createImage();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("gif").next();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(output)) {
+            writer.setOutput(stream);
+            IIOMetadata metadata = createGifMetadata(writer, image);
+            writer.prepareWriteSequence(null);
+            for (Frame frame = queue.take(); frame != Frame.END; frame = queue.take()) {
+                draw(frame, image);
+                free.add(frame);
+                writer.writeToSequence(new IIOImage(image, null, metadata), null);
+            }
+            writer.endWriteSequence();
+        } catch (IOException e) {
+            failed = true;
+            LOGGER.log(Level.SEVERE, e.toString(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * @return Metadata for every frame: the delay between frames and that the animation loops forever
+     */
+    private static IIOMetadata createGifMetadata(ImageWriter writer, BufferedImage image)
+            throws IIOInvalidTreeException {
+        IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), null);
+        String name = metadata.getNativeMetadataFormatName();
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(name);
+
+        IIOMetadataNode control = getChild(root, "GraphicControlExtension");
+        control.setAttribute("disposalMethod", "none");
+        control.setAttribute("userInputFlag", "FALSE");
+        control.setAttribute("transparentColorFlag", "FALSE");
+        control.setAttribute("delayTime", String.valueOf(GIF_DELAY));
+        control.setAttribute("transparentColorIndex", "0");
+
+        IIOMetadataNode loop = new IIOMetadataNode("ApplicationExtension");
+        loop.setAttribute("applicationID", "NETSCAPE");
+        loop.setAttribute("authenticationCode", "2.0");
+        loop.setUserObject(new byte[] { 1, 0, 0 });
+        getChild(root, "ApplicationExtensions").appendChild(loop);
+
+        metadata.setFromTree(name, root);
+        return metadata;
+    }
+
+    private static IIOMetadataNode getChild(IIOMetadataNode root, String name) {
+        for (Node node = root.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeName().equals(name)) {
+                return (IIOMetadataNode) node;
+            }
+        }
+        IIOMetadataNode node = new IIOMetadataNode(name);
+        root.appendChild(node);
+        return node;
+    }
+
+    private BufferedImage createImage() {
+        byte[] red = { (byte) BACKGROUND.getRed(), (byte) TILE.getRed() };
+        byte[] green = { (byte) BACKGROUND.getGreen(), (byte) TILE.getGreen() };
+        byte[] blue = { (byte) BACKGROUND.getBlue(), (byte) TILE.getBlue() };
+        return new BufferedImage(frameWidth, frameHeight, BufferedImage.TYPE_BYTE_INDEXED,
+                new IndexColorModel(1, 2, red, green, blue));
+    }
+
+    /**
+     * Draw one scaled row of cells, then copy it down for the rest of the rows of the cells.
+     */
+    private void draw(Frame frame, BufferedImage image) {
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int wordsPerRow = field.getWordsPerRow();
+        for (int y = 0; y < field.getHeight(); y++) {
+            int line = y * scale * frameWidth;
+            Arrays.fill(pixels, line, line + frameWidth, (byte) 0);
+            for (int w = 0; w < wordsPerRow; w++) {
+                long word = frame.rows[y * wordsPerRow + w];
+                while (word != 0) {
+                    int x = (w << 6) + Long.numberOfTrailingZeros(word);
+                    Arrays.fill(pixels, line + x * scale, line + (x + 1) * scale, (byte) 1);
+                    word &= word - 1;
+                }
+            }
+            for (int i = 1; i < scale; i++) {
+                System.arraycopy(pixels, line, pixels, line + i * frameWidth, frameWidth);
+            }
+        }
+    }
+
+    public boolean hasFailed() {
+        return failed;
+    }
+
+    public int getCaptured() {
+        return captured;
+    }
+
+    public int getDropped() {
+        return dropped;
+    }
+
+    /**
+     * A copy of the packed rows of one generation.
+     */
+    private static class Frame {
+        static final Frame END = new Frame(0);
+
+        final long[] rows;
+        int index;
+
+        Frame(int words) {
+            rows = new long[words];
+        }
+    }
+}
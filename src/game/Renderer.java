@@ -1,11 +1,19 @@
 package game;
 
 import utils.MouseHelper;
-import utils.Setting;
 import utils.Vec2;
+import utils.Viewport;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Created by Erik Mattfolk on 2017-04-27.
@@ -14,6 +22,25 @@ import java.awt.image.BufferedImage;
  * The Renderer that translates code into actual game.
  * Draws the field, markings and shapes
  * It uses a buffered image to draw on for faster response times
+ *
+ * Only the part of the field inside the Viewport is drawn, so the cost of a frame
+ * depends on the size of the screen and not on the size of the field.
+ * Live cells are written straight into the pixels of the image. When zoomed out
+ * past one pixel per cell, every pixel is shaded by how many live cells it covers.
+ * Those counts come from the PopulationPyramid of the field once a pixel covers whole blocks.
+ *
+ * The background and gridlines only change when the view does, so they are drawn
+ * once into a separate image and copied into the frame at the start of every frame.
+ * The live cells are drawn in parallel horizontal bands.
+ *
+ * In heat mode live cells are colored by how long they have lived, from white for
+ * newborn cells to blue for old ones, and cells that died recently glow red.
+ *
+ * With a Generations rule the dying cells are drawn with a palette that fades from orange
+ * for cells that just died to dark red for cells in their last state.
+ *
+ * On hexagonal boards the odd rows are drawn half a cell to the right (Viewport.getRowShift),
+ * so the cells are laid like bricks and every cell touches its six neighbors.
  */
 public class Renderer {
 
@@ -22,81 +49,554 @@ public class Renderer {
     private static final Color OUTLINE = Color.DARK_GRAY;
     private static final Color GRIDLINE = Color.DARK_GRAY.darker();
     private static final Color MARKING = new Color(0, 0, 255, 50);
+    private static final Color MATCH = new Color(255, 200, 0, 90);
+    private static final int DENSITY_SHADES = 256;
+    private static final int BANDS_PER_CORE = 2;
+    private static final int MIN_BAND_HEIGHT = 32;
+    private static final int MAX_SPRITES = 16;
+    // Larger shapes are drawn straight to the screen. All sprites together are kept below MAX_CACHED_PIXELS
+    private static final long MAX_SPRITE_PIXELS = 1 << 22;
+    private static final long MAX_CACHED_PIXELS = 1 << 24;
 
-    private int width, height, tileSize, gridWidth;
+    private int width, height;
+    private Viewport live, viewport;
     private Dimension dimension;
     private BufferedImage image;
+    private int[] pixels;
+    private BufferedImage background;
+    private int[] backgroundPixels;
+    private int backgroundVersion;
+    private int[] densityPalette;
+    private int[] agePalette, heatPalette;
+    private int[] statePalette;
+    private boolean heatMode;
+    private Band[] bands;
+    private Field source;
+    private Map<SpriteKey, BufferedImage> sprites;
+    private long cachedPixels;
+    private SpriteKey spriteLookup;
     private Graphics g;
 
-    public Renderer(Setting setting) {
-        this.width = setting.width;
-        this.height = setting.height;
-        this.tileSize = setting.tileSize;
-        this.gridWidth = setting.gridWidth;
-        dimension = new Dimension(
-                width * (tileSize + gridWidth) - gridWidth,
-                height * (tileSize + gridWidth) - gridWidth
-        );
+    public Renderer(Field field, Viewport viewport) {
+        this.width = field.getWidth();
+        this.height = field.getHeight();
+        live = viewport;
+        this.viewport = new Viewport(viewport);
+        dimension = viewport.getScreen();
         image = new BufferedImage(dimension.width, dimension.height, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        background = new BufferedImage(dimension.width, dimension.height, BufferedImage.TYPE_INT_RGB);
+        backgroundPixels = ((DataBufferInt) background.getRaster().getDataBuffer()).getData();
+        backgroundVersion = viewport.getVersion() - 1;
+        bands = createBands();
+        densityPalette = createDensityPalette();
+        agePalette = createGradient(new Color(255, 255, 220), new Color(70, 110, 220), Field.HEAT_RANGE);
+        heatPalette = createGradient(new Color(200, 60, 0), new Color(25, 0, 0), Field.HEAT_RANGE);
+        statePalette = createStatePalette(field.getRule().getStates());
+        heatMode = false;
+        spriteLookup = new SpriteKey();
+        sprites = new LinkedHashMap<>(MAX_SPRITES, 0.75f, true);
         g = image.getGraphics();
     }
 
-    public void clear() {
+    /**
+     * Start a frame with the background and gridlines.
+     * They are only drawn again if the view has changed since the last frame.
+     *
+     * The zoom and position of the view are copied here once, and the whole frame is drawn
+     * from the copy, so zooming or moving the view while a frame is drawn shows up in the next one.
+     */
+    public void drawBackground() {
+        live.copyTo(viewport);
+        if (backgroundVersion != viewport.getVersion()) {
+            Graphics bg = background.getGraphics();
+            clear(bg);
+            drawGridlines(bg);
+            bg.dispose();
+            backgroundVersion = viewport.getVersion();
+        }
+        System.arraycopy(backgroundPixels, 0, pixels, 0, pixels.length);
+    }
+
+    private void clear(Graphics g) {
         g.setColor(BACKGROUND);
         g.fillRect(0, 0, dimension.width, dimension.height);
     }
 
-    public void drawGridlines() {
+    private void drawGridlines(Graphics g) {
+        int gridWidth = viewport.getGridWidth();
+        if (gridWidth == 0) return;
+        int right = Math.min(dimension.width, viewport.getScreenX(width) + viewport.getRowShift(1));
+        int bottom = Math.min(dimension.height, viewport.getScreenY(height));
         g.setColor(GRIDLINE);
-        for (int i = 1; i < width; i++) {
-            int x = i * (tileSize + gridWidth) - gridWidth;
-            g.fillRect(x, 0, gridWidth, dimension.height);
+        if (viewport.getRowShift(1) != 0) {
+            drawShiftedGridlines(g, bottom);
+        } else {
+            for (int i = Math.max(1, viewport.getCellX(0)); i < width; i++) {
+                int x = viewport.getScreenX(i) - gridWidth;
+                if (x >= dimension.width) break;
+                g.fillRect(x, 0, gridWidth, bottom);
+            }
         }
-        for (int i = 1; i < height; i++) {
-            int y = i * (tileSize + gridWidth) - gridWidth;
-            g.fillRect(0, y, dimension.width, gridWidth);
+        for (int i = Math.max(1, viewport.getCellY(0)); i < height; i++) {
+            int y = viewport.getScreenY(i) - gridWidth;
+            if (y >= dimension.height) break;
+            g.fillRect(0, y, right, gridWidth);
+        }
+    }
+
+    /**
+     * The lines between the cells of a row, for boards where rows are moved to the right.
+     * Every row gets its own short lines, since they do not line up with the rows next to it.
+     */
+    private void drawShiftedGridlines(Graphics g, int bottom) {
+        int gridWidth = viewport.getGridWidth();
+        for (int i = Math.max(0, viewport.getCellY(0)); i < height; i++) {
+            int top = viewport.getScreenY(i);
+            if (top >= bottom) break;
+            for (int j = Math.max(1, viewport.getCellX(0, i)); j <= width; j++) {
+                int x = viewport.getScreenX(j, i) - gridWidth;
+                if (x >= dimension.width) break;
+                g.fillRect(x, top, gridWidth, viewport.getPitch());
+            }
         }
     }
 
+    /**
+     * @param field The field to draw
+     *
+     * The screen is split into horizontal bands that are drawn in parallel on the common pool.
+     * Every band only writes the pixel rows inside it, so the bands never touch the same pixels.
+     */
     public void drawActiveTiles(Field field) {
-        g.setColor(TILE);
-        for (int i = 0; i < height; i++) {
-            int y = i * (tileSize + gridWidth);
-            for (int j = 0; j < width; j++) {
-                int x = j * (tileSize + gridWidth);
+        source = field;
+        for (Band band : bands) {
+            band.reinitialize();
+        }
+        ForkJoinTask.invokeAll(bands);
+        source = null;
+    }
+
+    /**
+     * Draw the cells that cover the pixel rows from top to bottom.
+     */
+    private void drawBand(Field field, int top, int bottom, int[] blockCounts) {
+        int cellsPerPixel = viewport.getCellsPerPixel();
+        if (cellsPerPixel == 1) {
+            if (heatMode && field.isHeatEnabled()) {
+                drawHeat(field, top, bottom);
+            } else {
+                drawTiles(field, top, bottom);
+            }
+            return;
+        }
+        int level = field.getPyramid().getLevelFor(cellsPerPixel);
+        if (level >= 0) {
+            drawDensity(field.getPyramid(), level, top, bottom);
+        } else {
+            drawDensity(field, top, bottom, blockCounts);
+        }
+    }
+
+    private void drawTiles(Field field, int top, int bottom) {
+        long[] dying = field.getDyingRows();
+        if (dying != null) drawCells(field, dying, true, top, bottom);
+        drawCells(field, field.getRows(), false, top, bottom);
+    }
+
+    /**
+     * @param rows Packed rows of the cells to draw
+     * @param byState Whether to color each cell by its state, otherwise all cells are TILE
+     */
+    private void drawCells(Field field, long[] rows, boolean byState, int top, int bottom) {
+        int words = field.getWordsPerRow();
+        int color = TILE.getRGB();
+        int tileSize = viewport.getTileSize();
+        int firstRow = Math.max(0, viewport.getCellY(top));
+        int lastRow = Math.min(height - 1, viewport.getCellY(bottom - 1));
+
+        for (int i = firstRow; i <= lastRow; i++) {
+            int firstColumn = Math.max(0, viewport.getCellX(0, i));
+            int lastColumn = Math.min(width - 1, viewport.getCellX(dimension.width - 1, i));
+            if (firstColumn > lastColumn) continue;
+            int tileTop = viewport.getScreenY(i);
+            int y0 = Math.max(top, tileTop), y1 = Math.min(bottom, tileTop + tileSize);
+            for (int w = firstColumn >>> 6; w <= lastColumn >>> 6; w++) {
+                long word = rows[i * words + w] & columnMask(w, firstColumn, lastColumn);
+                while (word != 0) {
+                    int j = (w << 6) + Long.numberOfTrailingZeros(word);
+                    int left = viewport.getScreenX(j, i);
+                    int x0 = Math.max(0, left), x1 = Math.min(dimension.width, left + tileSize);
+                    int tileColor = byState ? statePalette[field.getState(j, i)] : color;
+                    for (int y = y0; y < y1; y++) {
+                        Arrays.fill(pixels, y * dimension.width + x0, y * dimension.width + x1, tileColor);
+                    }
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Like drawTiles, but every visible cell is looked at since dead cells can have heat too.
+     */
+    private void drawHeat(Field field, int top, int bottom) {
+        int tileSize = viewport.getTileSize();
+        int firstRow = Math.max(0, viewport.getCellY(top));
+        int lastRow = Math.min(height - 1, viewport.getCellY(bottom - 1));
+
+        for (int i = firstRow; i <= lastRow; i++) {
+            int firstColumn = Math.max(0, viewport.getCellX(0, i));
+            int lastColumn = Math.min(width - 1, viewport.getCellX(dimension.width - 1, i));
+            int tileTop = viewport.getScreenY(i);
+            int y0 = Math.max(top, tileTop), y1 = Math.min(bottom, tileTop + tileSize);
+            for (int j = firstColumn; j <= lastColumn; j++) {
+                int age = Math.min(field.getAge(j, i), Field.HEAT_RANGE - 1);
+                int color;
                 if (field.getTile(j, i)) {
-                    g.fillRect(x, y, tileSize, tileSize);
+                    color = agePalette[age];
+                } else if (age < Field.HEAT_RANGE - 1) {
+                    color = heatPalette[age];
+                } else {
+                    continue;
+                }
+                int left = viewport.getScreenX(j, i);
+                int x0 = Math.max(0, left), x1 = Math.min(dimension.width, left + tileSize);
+                for (int y = y0; y < y1; y++) {
+                    Arrays.fill(pixels, y * dimension.width + x0, y * dimension.width + x1, color);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Mask for word w of a row that keeps only the columns from first to last
+     */
+    private static long columnMask(int w, int first, int last) {
+        long mask = -1L;
+        if (w == first >>> 6) mask &= -1L << first;
+        if (w == last >>> 6) mask &= -1L >>> (63 - (last & 63));
+        return mask;
+    }
+
+    /**
+     * Zoomed out: every pixel covers a square of cellsPerPixel * cellsPerPixel cells
+     * and is shaded by how many of them are alive.
+     */
+    private void drawDensity(Field field, int top, int bottom, int[] blockCounts) {
+        long[] rows = field.getRows();
+        int words = field.getWordsPerRow();
+        int cellsPerPixel = viewport.getCellsPerPixel();
+        int shift = Integer.numberOfTrailingZeros(cellsPerPixel);
+        int area = cellsPerPixel * cellsPerPixel;
+        int firstColumn = Math.max(0, viewport.getCellX(0));
+        int lastColumn = Math.min(width - 1, viewport.getCellX(dimension.width) - 1);
+        if (firstColumn > lastColumn) return;
+
+        for (int py = top; py < bottom; py++) {
+            int firstRow = viewport.getCellY(py);
+            if (firstRow >= height) break;
+            int lastRow = Math.min(height, firstRow + cellsPerPixel);
+            Arrays.fill(blockCounts, 0);
+            for (int i = firstRow; i < lastRow; i++) {
+                for (int w = firstColumn >>> 6; w <= lastColumn >>> 6; w++) {
+                    long word = rows[i * words + w] & columnMask(w, firstColumn, lastColumn);
+                    while (word != 0) {
+                        int j = (w << 6) + Long.numberOfTrailingZeros(word);
+                        blockCounts[(j - firstColumn) >>> shift]++;
+                        word &= word - 1;
+                    }
+                }
+            }
+            int start = py * dimension.width;
+            int columns = Math.min(dimension.width, ((lastColumn - firstColumn) >>> shift) + 1);
+            for (int px = 0; px < columns; px++) {
+                int count = blockCounts[px];
+                if (count > 0) {
+                    pixels[start + px] = densityPalette[(int) ((long) count * (DENSITY_SHADES - 1) / area)];
                 }
             }
         }
     }
 
+    /**
+     * Zoomed out far enough that every pixel covers whole blocks of the pyramid level.
+     * Each pixel sums (cellsPerPixel / blockSize)^2 block counts.
+     */
+    private void drawDensity(PopulationPyramid pyramid, int level, int top, int bottom) {
+        int cellsPerPixel = viewport.getCellsPerPixel();
+        int blockSize = pyramid.getBlockSize(level);
+        int blocks = cellsPerPixel / blockSize;
+        int area = cellsPerPixel * cellsPerPixel;
+        int blockColumns = pyramid.getColumns(level);
+        int blockRows = (height + blockSize - 1) / blockSize;
+        int firstBlockX = viewport.getCellX(0) / blockSize;
+
+        for (int py = top; py < bottom; py++) {
+            int firstBlockY = viewport.getCellY(py) / blockSize;
+            if (firstBlockY >= blockRows) break;
+            int lastBlockY = Math.min(blockRows, firstBlockY + blocks);
+            int start = py * dimension.width;
+            for (int px = 0; px < dimension.width; px++) {
+                int bx0 = firstBlockX + px * blocks;
+                if (bx0 >= blockColumns) break;
+                int bx1 = Math.min(blockColumns, bx0 + blocks);
+                int count = 0;
+                for (int by = firstBlockY; by < lastBlockY; by++) {
+                    for (int bx = bx0; bx < bx1; bx++) {
+                        count += pyramid.getCount(level, bx, by);
+                    }
+                }
+                if (count > 0) {
+                    pixels[start + px] = densityPalette[(int) ((long) count * (DENSITY_SHADES - 1) / area)];
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Bands of at least MIN_BAND_HEIGHT pixel rows, a few per core so the pool can balance them
+     */
+    private Band[] createBands() {
+        int count = Math.max(1, Math.min(
+                Runtime.getRuntime().availableProcessors() * BANDS_PER_CORE,
+                dimension.height / MIN_BAND_HEIGHT
+        ));
+        Band[] result = new Band[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = new Band(dimension.height * i / count, dimension.height * (i + 1) / count);
+        }
+        return result;
+    }
+
+    /**
+     * Shades from dim to TILE. Even one live cell gets a visible shade,
+     * and the shades are spread by the square root so sparse areas still stand out.
+     */
+    private static int[] createDensityPalette() {
+        int[] palette = new int[DENSITY_SHADES];
+        for (int i = 0; i < DENSITY_SHADES; i++) {
+            double t = 0.25 + 0.75 * Math.sqrt(i / (double) (DENSITY_SHADES - 1));
+            palette[i] = new Color(
+                    (int) (TILE.getRed() * t),
+                    (int) (TILE.getGreen() * t),
+                    (int) (TILE.getBlue() * t)
+            ).getRGB();
+        }
+        return palette;
+    }
+
+    /**
+     * @return size colors going from the first to the last color
+     */
+    private static int[] createGradient(Color from, Color to, int size) {
+        int[] gradient = new int[size];
+        for (int i = 0; i < size; i++) {
+            double t = size > 1 ? i / (double) (size - 1) : 0;
+            gradient[i] = new Color(
+                    (int) (from.getRed() + (to.getRed() - from.getRed()) * t),
+                    (int) (from.getGreen() + (to.getGreen() - from.getGreen()) * t),
+                    (int) (from.getBlue() + (to.getBlue() - from.getBlue()) * t)
+            ).getRGB();
+        }
+        return gradient;
+    }
+
+    /**
+     * @return The color of every state, where only the dying states 2 and up are used
+     */
+    private static int[] createStatePalette(int states) {
+        int[] palette = new int[states];
+        palette[1] = TILE.getRGB();
+        if (states > 2) {
+            int[] dying = createGradient(new Color(255, 150, 30), new Color(90, 10, 0), states - 2);
+            System.arraycopy(dying, 0, palette, 2, dying.length);
+        }
+        return palette;
+    }
+
+    public void setHeatMode(boolean heatMode) {
+        this.heatMode = heatMode;
+    }
+
     public void drawMarking(MouseHelper helper) {
         if (!helper.isMarking()) return;
         Rectangle marking = helper.getMarking();
-        g.setColor(MARKING);
-        g.fillRect(
-            marking.x * (tileSize + gridWidth),
-            marking.y * (tileSize + gridWidth),
-            marking.width * (tileSize + gridWidth),
-            marking.height * (tileSize + gridWidth)
+        blendRect(
+            viewport.getScreenX(marking.x),
+            viewport.getScreenY(marking.y),
+            viewport.getLength(marking.width) + viewport.getGridWidth(),
+            viewport.getLength(marking.height) + viewport.getGridWidth(),
+            MARKING
         );
     }
 
-    public void drawShapeOutline(Shape shape, Vec2 pos) {
-        g.setColor(OUTLINE);
-        Vec2 middle = shape.getMiddle();
-        pos.translate(-middle.x, -middle.y);
-        for (Vec2 coord : shape.getPoints()) {
-            g.fillRect(
-                (tileSize + gridWidth) * (coord.x + pos.x),
-                (tileSize + gridWidth) * (coord.y + pos.y),
-                tileSize,
-                tileSize
+    /**
+     * @param matches Bounding boxes of shapes found on the field
+     *
+     * Highlight the results of a pattern search.
+     */
+    public void drawMatches(List<Rectangle> matches) {
+        for (Rectangle match : matches) {
+            blendRect(
+                viewport.getScreenX(match.x),
+                viewport.getScreenY(match.y),
+                viewport.getLength(match.width),
+                viewport.getLength(match.height),
+                MATCH
             );
         }
     }
 
+    /**
+     * @param shape The shape to draw
+     * @param x Field x-coordinate of the middle of the shape
+     * @param y Field y-coordinate of the middle of the shape
+     *
+     * The shape is drawn as one image. Every orientation of a shape is rasterized once per zoom level
+     * and kept in a small LRU cache, so the cost of a frame does not depend on the size of the shape.
+     * Shapes too big for a sprite at the current zoom are drawn cell by cell instead.
+     */
+    public void drawShapeOutline(Shape shape, int x, int y) {
+        if (shape.isEmpty()) return;
+        Vec2 middle = shape.getMiddle();
+        int firstRow = y - middle.y;
+        int left = viewport.getScreenX(x - middle.x), top = viewport.getScreenY(firstRow);
+        int right = Math.min(dimension.width, viewport.getScreenX(width) + viewport.getRowShift(1));
+        int bottom = Math.min(dimension.height, viewport.getScreenY(height));
+        // On hexagonal boards the sprite depends on whether the shape starts on an odd row
+        int parity = viewport.getRowShift(1) != 0 ? firstRow & 1 : 0;
+        BufferedImage sprite = getSprite(shape, parity);
+        if (sprite != null) {
+            blitSprite(sprite, left, top, right, bottom);
+        } else {
+            g.setClip(0, 0, right, bottom);
+            drawShape(g, shape, parity, left, top, dimension.height);
+            g.setClip(null);
+        }
+    }
+
+    /**
+     * Mix a translucent color into the pixels of a rectangle on the screen.
+     * Done by hand since translucent fills through Graphics allocate on every call.
+     */
+    private void blendRect(int x, int y, int w, int h, Color color) {
+        int x0 = Math.max(0, x), x1 = Math.min(dimension.width, x + w);
+        int y0 = Math.max(0, y), y1 = Math.min(dimension.height, y + h);
+        int alpha = color.getAlpha(), inverse = 255 - alpha;
+        int red = color.getRed() * alpha, green = color.getGreen() * alpha, blue = color.getBlue() * alpha;
+        for (int i = y0; i < y1; i++) {
+            for (int j = i * dimension.width + x0; j < i * dimension.width + x1; j++) {
+                int p = pixels[j];
+                pixels[j] = (((p >>> 16 & 0xFF) * inverse + red) / 255) << 16
+                        | (((p >>> 8 & 0xFF) * inverse + green) / 255) << 8
+                        | ((p & 0xFF) * inverse + blue) / 255;
+            }
+        }
+    }
+
+    /**
+     * Copy the opaque pixels of a sprite to the screen, clipped to the right and bottom edges given.
+     */
+    private void blitSprite(BufferedImage sprite, int left, int top, int right, int bottom) {
+        int[] spritePixels = ((DataBufferInt) sprite.getRaster().getDataBuffer()).getData();
+        int spriteWidth = sprite.getWidth();
+        int x0 = Math.max(0, left), x1 = Math.min(right, left + spriteWidth);
+        int y0 = Math.max(0, top), y1 = Math.min(bottom, top + sprite.getHeight());
+        for (int y = y0; y < y1; y++) {
+            int from = (y - top) * spriteWidth - left;
+            for (int x = x0; x < x1; x++) {
+                int p = spritePixels[from + x];
+                if (p >>> 24 != 0) {
+                    pixels[y * dimension.width + x] = p;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param parity 1 if the first row of the shape is an odd row of a hexagonal board, otherwise 0
+     * @return The cached sprite of the shape at the current zoom, null if it would be too big
+     */
+    private BufferedImage getSprite(Shape shape, int parity) {
+        spriteLookup.set(shape, viewport, parity);
+        BufferedImage sprite = sprites.get(spriteLookup);
+        if (sprite == null) {
+            long spriteWidth = offset(shape.getWidth()) + viewport.getRowShift(1);
+            long spriteHeight = offset(shape.getHeight());
+            if (spriteWidth * spriteHeight > MAX_SPRITE_PIXELS) return null;
+            sprite = new BufferedImage((int) spriteWidth, (int) spriteHeight, BufferedImage.TYPE_INT_ARGB);
+            Graphics spriteGraphics = sprite.getGraphics();
+            drawShape(spriteGraphics, shape, parity, 0, 0, sprite.getHeight());
+            spriteGraphics.dispose();
+            SpriteKey key = new SpriteKey();
+            key.set(shape, viewport, parity);
+            cacheSprite(key, sprite);
+        }
+        return sprite;
+    }
+
+    /**
+     * Add a sprite to the cache, then drop the least recently used sprites until there are at most
+     * MAX_SPRITES of at most MAX_CACHED_PIXELS pixels together.
+     */
+    private void cacheSprite(SpriteKey key, BufferedImage sprite) {
+        sprites.put(key, sprite);
+        cachedPixels += (long) sprite.getWidth() * sprite.getHeight();
+        Iterator<BufferedImage> eldest = sprites.values().iterator();
+        while (sprites.size() > MAX_SPRITES || cachedPixels > MAX_CACHED_PIXELS) {
+            BufferedImage old = eldest.next();
+            if (old == sprite) break;
+            cachedPixels -= (long) old.getWidth() * old.getHeight();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * @param target Where to draw
+     * @param shape The shape to draw
+     * @param parity 1 if the first row of the shape is an odd row of the field, otherwise 0
+     * @param left Pixel x-coordinate of the left edge of the shape
+     * @param top Pixel y-coordinate of the top edge of the shape
+     * @param bottom Height of the target, rows below it are skipped
+     *
+     * Walks the packed rows of the shape. Without gridlines, neighboring points in a row
+     * are drawn as one rectangle.
+     */
+    private void drawShape(Graphics target, Shape shape, int parity, int left, int top, int bottom) {
+        target.setColor(OUTLINE);
+        int gridWidth = viewport.getGridWidth();
+        long[] rows = shape.getRows();
+        int words = shape.getWordsPerRow();
+        for (int i = 0; i < shape.getHeight(); i++) {
+            int y = top + offset(i);
+            if (y >= bottom) break;
+            if (y + viewport.getLength(1) <= 0) continue;
+            for (int w = 0; w < words; w++) {
+                long word = rows[i * words + w];
+                while (word != 0) {
+                    int start = Long.numberOfTrailingZeros(word);
+                    int length = gridWidth == 0 ? Long.numberOfTrailingZeros(~(word >>> start)) : 1;
+                    target.fillRect(
+                        left + offset((w << 6) + start) + viewport.getRowShift(parity + i),
+                        y,
+                        viewport.getLength(length),
+                        viewport.getLength(1)
+                    );
+                    word = length == 64 ? 0 : word & ~(((1L << length) - 1) << start);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Distance in pixels from the first of a number of cells to the one after the last
+     */
+    private int offset(int cells) {
+        int cellsPerPixel = viewport.getCellsPerPixel();
+        return cellsPerPixel > 1 ? cells / cellsPerPixel : cells * viewport.getPitch();
+    }
+
     public Dimension getDimension() {
         return dimension;
     }
@@ -104,4 +604,55 @@ public class Renderer {
     public BufferedImage getImage() {
         return image;
     }
+
+    /**
+     * Draws the cells of one band of pixel rows. The task is reused every frame.
+     * Every band has its own buffer for counting cells, since the bands run at the same time.
+     */
+    private class Band extends RecursiveAction {
+        private final int top, bottom;
+        private final int[] blockCounts;
+
+        Band(int top, int bottom) {
+            this.top = top;
+            this.bottom = bottom;
+            blockCounts = new int[dimension.width];
+        }
+
+        @Override
+        protected void compute() {
+            drawBand(source, top, bottom, blockCounts);
+        }
+    }
+
+    /**
+     * A shape orientation at one zoom. Orientations are cached in the Shape,
+     * so the same orientation is always the same object and can be compared by identity.
+     * One key is reused for lookups so drawing a cached sprite does not allocate.
+     */
+    private static class SpriteKey {
+        private Shape shape;
+        private int tileSize, gridWidth, cellsPerPixel, parity;
+
+        void set(Shape shape, Viewport viewport, int parity) {
+            this.shape = shape;
+            tileSize = viewport.getTileSize();
+            gridWidth = viewport.getGridWidth();
+            cellsPerPixel = viewport.getCellsPerPixel();
+            this.parity = parity;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SpriteKey)) return false;
+            SpriteKey other = (SpriteKey) o;
+            return shape == other.shape && tileSize == other.tileSize && gridWidth == other.gridWidth
+                    && cellsPerPixel == other.cellsPerPixel && parity == other.parity;
+        }
+
+        @Override
+        public int hashCode() {
+            return (((System.identityHashCode(shape) * 31 + tileSize) * 31 + gridWidth) * 31 + cellsPerPixel) * 31 + parity;
+        }
+    }
 }
@@ -0,0 +1,145 @@
+package game;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces the game loop on two fixed-rate timelines, one for generations and one for frames.
+ *
+ * Both timelines are deadlines in System.nanoTime(). A deadline moves on by exactly its period
+ * each time it is met, so waking up late never makes the rate drift: the next batch just holds
+ * the generations that came due in the meantime. That is also how speeds above one generation
+ * per millisecond work, since the loop never parks for less than MIN_PARK and instead runs the
+ * generations of a whole tick at once.
+ *
+ * Generations are run in batches that fit before the next frame, using how long a generation
+ * has taken lately. If the simulation can not keep up, generations that are more than MAX_LAG
+ * late are dropped instead of being caught up on, so the loop can not spiral and frames keep
+ * coming. Frames that were missed are skipped, not drawn late.
+ *
+ * Between deadlines the loop thread parks, so a paused game only wakes up for its frames.
+ * Changing the speed wakes it up right away.
+ */
+final class Scheduler {
+
+    private static final long MIN_PARK = 1000000;
+    private static final long MAX_LAG = 250000000;
+    // Weight of the newest batch in the average cost of a generation
+    private static final double COST_WEIGHT = 0.25;
+
+    private final long frameTime;
+    private volatile long updateTime;
+    private volatile boolean speedChanged;
+    private long nextUpdate, nextFrame;
+    private boolean unlimitedBatch;
+    private double generationCost;
+    private volatile Thread loop;
+
+    /**
+     * @param updateTime Nanoseconds between generations
+     * @param frameTime Nanoseconds between frames
+     */
+    Scheduler(long updateTime, long frameTime) {
+        this.updateTime = updateTime;
+        this.frameTime = frameTime;
+        long now = System.nanoTime();
+        nextUpdate = now + updateTime;
+        nextFrame = now;
+    }
+
+    /**
+     * Make the calling thread the loop thread, which is woken up when the speed changes.
+     */
+    void start() {
+        loop = Thread.currentThread();
+        long now = System.nanoTime();
+        nextUpdate = now + updateTime;
+        nextFrame = now;
+    }
+
+    /**
+     * @param updateTime Nanoseconds between generations from now on
+     */
+    void setUpdateTime(long updateTime) {
+        this.updateTime = updateTime;
+        speedChanged = true;
+        wake();
+    }
+
+    /**
+     * Stop parking and look at the deadlines again, for example because the game was unpaused.
+     */
+    void wake() {
+        Thread thread = loop;
+        if (thread != null) LockSupport.unpark(thread);
+    }
+
+    /**
+     * @param now The current time
+     * @param unlimited Whether to run as many generations as fit before the next frame,
+     *                  regardless of the simulation timeline
+     * @return Number of generations to run now
+     */
+    int getBatch(long now, boolean unlimited) {
+        if (speedChanged) {
+            speedChanged = false;
+            nextUpdate = Math.min(nextUpdate, now + updateTime);
+        }
+        unlimitedBatch = unlimited;
+        long room = nextFrame - now;
+        long fit = generationCost > 0 ? (long) (room / generationCost) : 1;
+        if (unlimited) return (int) Math.max(1, Math.min(fit, Integer.MAX_VALUE));
+        if (now < nextUpdate) return 0;
+        long late = now - nextUpdate;
+        if (late > MAX_LAG) {
+            nextUpdate = now - MAX_LAG;
+            late = MAX_LAG;
+        }
+        long due = late / updateTime + 1;
+        return (int) Math.max(1, Math.min(due, Math.min(fit, Integer.MAX_VALUE)));
+    }
+
+    /**
+     * @param count Number of generations of the last batch that were run
+     * @param elapsed Nanoseconds it took
+     */
+    void ran(int count, long elapsed) {
+        if (count == 0) return;
+        if (unlimitedBatch) idle(System.nanoTime());
+        else nextUpdate += count * updateTime;
+        double cost = (double) elapsed / count;
+        generationCost = generationCost == 0 ? cost : generationCost + (cost - generationCost) * COST_WEIGHT;
+    }
+
+    /**
+     * Keep the simulation timeline at the current time while nothing is simulated,
+     * so no generations come due all at once when the game is unpaused.
+     */
+    void idle(long now) {
+        nextUpdate = now + updateTime;
+    }
+
+    boolean isFrameDue(long now) {
+        return now >= nextFrame;
+    }
+
+    /**
+     * Move the frame timeline to the next frame that is still ahead.
+     */
+    void framePresented(long now) {
+        nextFrame += frameTime;
+        if (nextFrame <= now) nextFrame = now + frameTime;
+    }
+
+    /**
+     * Park the loop thread until the next frame, or the next generation if simulating.
+     *
+     * @param simulating Whether generations are coming due
+     */
+    void park(boolean simulating) {
+        long now = System.nanoTime();
+        long deadline = nextFrame;
+        if (simulating) deadline = Math.min(deadline, Math.max(nextUpdate, now + MIN_PARK));
+        long wait = deadline - now;
+        if (wait > 0) LockSupport.parkNanos(this, wait);
+    }
+}
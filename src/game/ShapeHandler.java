@@ -1,9 +1,18 @@
 package game;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
 import com.google.gson.reflect.TypeToken;
 
+import utils.Vec2;
 import utils.WindowUtils;
 
 import javax.swing.*;
@@ -12,6 +21,9 @@ import java.io.IOException;
 import java.lang.reflect.Type;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,6 +37,9 @@ import java.util.logging.Logger;
  * Shapes are then accessed by the getCurrentShape method and
  * cycling methods. Its purpose is to provide a easy way to save,
  * store and access shapes.
+ * Shapes are indexed by their canonical hash, so the same object is only stored once
+ * no matter how it was rotated or mirrored when it was captured. Different shapes can
+ * have the same hash, so every hash has a list of shapes that are compared one by one.
  */
 public class ShapeHandler {
 
@@ -34,14 +49,19 @@ public class ShapeHandler {
 
     private int currentShape;
     private ArrayList<Shape> shapes;
+    private Map<Long, List<Integer>> index;
     private Gson gson;
 
     public ShapeHandler() {
         currentShape = 0;
         shapes = new ArrayList<>();
-        gson = new Gson();
+        index = new HashMap<>();
+        gson = new GsonBuilder()
+                .registerTypeAdapter(Shape.class, new ShapeAdapter())
+                .create();
         String data = readFile();
         extractData(data);
+        createIndex();
     }
 
     public Shape getCurrentShape() {
@@ -58,6 +78,7 @@ public class ShapeHandler {
     public void deleteCurrentShape() {
         if (shapes.isEmpty()) return;
         shapes.remove(currentShape);
+        createIndex();
         save();
         if (shapes.isEmpty()) return;
         currentShape %= shapes.size();
@@ -81,14 +102,6 @@ public class ShapeHandler {
         currentShape = Math.floorMod(currentShape - 1, shapes.size());
     }
 
-    /**
-     * Set current shape to the last index of shapes
-     */
-    public void cycleToEnd() {
-        if (shapes.isEmpty()) return;
-        currentShape = shapes.size() - 1;
-    }
-
     /**
      * @return String of the contents of SAVE_PATH, "" if no file exists
      */
@@ -115,12 +128,13 @@ public class ShapeHandler {
      * @param data String with Json data
      *
      * If data is a valid Json String, all shapes it represents will be turned into the list.
+     * Otherwise, for example if a shape has no points, the list stays empty.
      */
     private void extractData(String data) {
         if (data.isEmpty()) return;
         try {
             shapes = gson.fromJson(data, SHAPES_TYPE);
-        } catch (JsonSyntaxException e) {
+        } catch (JsonParseException | IllegalStateException e) {
             LOGGER.log(Level.SEVERE, e.toString(), e);
             WindowUtils.showNotice(e.toString(), "Fix Json formatting and restart.");
         }
@@ -128,14 +142,60 @@ public class ShapeHandler {
 
     /**
      * @param shape The Shape to be added
+     * @return True if the shape was added, false if it was empty or already known
      *
-     * Add any non-empty shapes to the list
+     * Add any non-empty shapes that are not in the list yet.
+     * The added shape, or the known one it matched, becomes the current shape.
+     */
+    public boolean addShape(Shape shape) {
+        if (shape.isEmpty()) return false;
+        int known = indexOf(shape);
+        if (known >= 0) {
+            currentShape = known;
+            return false;
+        }
+        shapes.add(shape);
+        currentShape = shapes.size() - 1;
+        addToIndex(currentShape);
+        save();
+        return true;
+    }
+
+    /**
+     * @param shape Any shape, for example one captured from the field
+     * @return The saved shape that is the same object in some orientation, null if there is none
+     */
+    public Shape identify(Shape shape) {
+        int i = indexOf(shape);
+        return i < 0 ? null : shapes.get(i);
+    }
+
+    /**
+     * @param shape Shape to look for
+     * @return Index of the saved shape that is the same object, -1 if there is none
      */
-    public void addShape(Shape shape) {
-        if (!shape.getPoints().isEmpty()) {
-            shapes.add(shape);
-            save();
+    private int indexOf(Shape shape) {
+        List<Integer> candidates = index.get(shape.getCanonicalHash());
+        if (candidates == null) return -1;
+        for (int i : candidates) {
+            if (shapes.get(i).isSameObject(shape)) return i;
         }
+        return -1;
+    }
+
+    /**
+     * Map the canonical hash of every shape to the indexes of the shapes with that hash.
+     * If a save file has duplicates the first one is found first.
+     */
+    private void createIndex() {
+        index.clear();
+        for (int i = 0; i < shapes.size(); i++) {
+            addToIndex(i);
+        }
+    }
+
+    private void addToIndex(int i) {
+        index.computeIfAbsent(shapes.get(i).getCanonicalHash(), hash -> new ArrayList<>()).add(i);
     }
 
     /**
@@ -169,4 +229,31 @@ public class ShapeHandler {
             }
         }
     }
+
+    /**
+     * Shapes are stored as their list of points, which is the format the save file has always had.
+     * The bitmap of a Shape is rebuilt from the points when it is read.
+     */
+    private static class ShapeAdapter implements JsonSerializer<Shape>, JsonDeserializer<Shape> {
+
+        private static final Type POINTS_TYPE = new TypeToken<ArrayList<Vec2>>() {}.getType();
+
+        @Override
+        public JsonElement serialize(Shape shape, Type type, JsonSerializationContext context) {
+            JsonObject object = new JsonObject();
+            object.add("points", context.serialize(shape.getPoints(), POINTS_TYPE));
+            return object;
+        }
+
+        @Override
+        public Shape deserialize(JsonElement json, Type type, JsonDeserializationContext context)
+                throws JsonParseException {
+            JsonArray points = json.getAsJsonObject().getAsJsonArray("points");
+            if (points == null) {
+                throw new JsonParseException("Shape without points: " + json);
+            }
+            List<Vec2> list = context.deserialize(points, POINTS_TYPE);
+            return new Shape(list);
+        }
+    }
 }
@@ -0,0 +1,176 @@
+package game;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * Headless batch mode that runs many random soups to look for rare objects.
+ *
+ * Every soup gets its own small board. Soups are split into chunks that are run
+ * on the common ForkJoinPool, so idle cores steal chunks from busy ones. Each
+ * worker thread reuses one BitField for all of its soups, since soups are dense and busy. A soup is run until its
+ * board repeats with a period up to MAX_PERIOD, or until MAX_GENERATIONS.
+ *
+ * One line is written per soup: the seed of the soup, generations until it settled,
+ * final population, period (0 if it never settled) and census hash.
+ * A soup can be reproduced from its seed alone.
+ */
+public final class SoupSearch {
+
+    private static final Logger LOGGER = Logger.getLogger(SoupSearch.class.getName());
+    private static final int BOARD_SIZE = 64;
+    private static final int SOUP_SIZE = 16;
+    private static final int MAX_GENERATIONS = 4000;
+    private static final int MAX_PERIOD = 30;
+    private static final int CHUNK_SIZE = 64;
+    private static final String USAGE = "Usage: batch <soups> [density] [seed] [output file]";
+
+    private static final ThreadLocal<BitField> FIELDS =
+            ThreadLocal.withInitial(() -> new BitField(BOARD_SIZE, BOARD_SIZE));
+
+    private SoupSearch() {}
+
+    /**
+     * @param args soups, then optionally density, seed and output file
+     */
+    public static void run(String[] args) {
+        int soups;
+        double density;
+        long seed;
+        String output;
+        try {
+            soups = Integer.parseInt(args[0]);
+            density = args.length > 1 ? Double.parseDouble(args[1]) : 0.5;
+            seed = args.length > 2 ? Long.parseLong(args[2]) : System.nanoTime();
+            output = args.length > 3 ? args[3] : "soups.tsv";
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(USAGE);
+            return;
+        }
+        if (soups <= 0) {
+            System.err.println(USAGE);
+            return;
+        }
+
+        // SplittableRandom is not thread safe, so every chunk gets its own split up front
+        SplittableRandom root = new SplittableRandom(seed);
+        int chunks = (soups + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        SplittableRandom[] randoms = new SplittableRandom[chunks];
+        for (int i = 0; i < chunks; i++) {
+            randoms[i] = root.split();
+        }
+
+        long start = System.nanoTime();
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(output))) {
+            writer.write("seed\tgenerations\tpopulation\tperiod\tcensus\n");
+            IntStream.range(0, chunks).parallel().forEach(chunk -> {
+                int count = Math.min(CHUNK_SIZE, soups - chunk * CHUNK_SIZE);
+                String lines = runChunk(randoms[chunk], count, density);
+                write(writer, lines);
+            });
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, e.toString(), e);
+            return;
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d soups in %.2f s: %.1f soups/s, %.1f soups/s per core%n",
+                soups, seconds, soups / seconds, soups / seconds / cores);
+    }
+
+    /**
+     * @return One result line per soup
+     */
+    private static String runChunk(SplittableRandom random, int count, double density) {
+        BitField field = FIELDS.get();
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            long soupSeed = random.nextLong();
+            field.reset();
+            seed(field, new SplittableRandom(soupSeed), density);
+            Result result = settle(field);
+            lines.append(soupSeed).append('\t')
+                    .append(result.generations).append('\t')
+                    .append(result.population).append('\t')
+                    .append(result.period).append('\t')
+                    .append(Long.toHexString(census(field).getHash())).append('\n');
+        }
+        return lines.toString();
+    }
+
+    /**
+     * Fill a SOUP_SIZE square in the middle of the field, every cell alive with probability density.
+     */
+    private static void seed(BitField field, SplittableRandom random, double density) {
+        int offset = (BOARD_SIZE - SOUP_SIZE) / 2;
+        for (int y = 0; y < SOUP_SIZE; y++) {
+            for (int x = 0; x < SOUP_SIZE; x++) {
+                if (random.nextDouble() < density) {
+                    field.setTile(offset + x, offset + y, true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Run the field until a board hash repeats within MAX_PERIOD generations.
+     * Equal hashes are taken to mean equal boards, which is safe enough for statistics.
+     */
+    private static Result settle(BitField field) {
+        long[] history = new long[MAX_PERIOD];
+        int generation = 0;
+        while (generation < MAX_GENERATIONS) {
+            long hash = hash(field.getRows());
+            for (int period = 1; period <= Math.min(generation, MAX_PERIOD); period++) {
+                if (history[(generation - period) % MAX_PERIOD] == hash) {
+                    return new Result(generation, field.getPopulation(), period);
+                }
+            }
+            history[generation % MAX_PERIOD] = hash;
+            field.update();
+            generation++;
+        }
+        return new Result(generation, field.getPopulation(), 0);
+    }
+
+    private static Census census(BitField field) {
+        return Census.take(field.getRows(), field.getWidth(), field.getHeight(), field.getWordsPerRow());
+    }
+
+    private static long hash(long[] rows) {
+        long hash = 0;
+        for (long word : rows) {
+            hash = (hash ^ word) * 0x9e3779b97f4a7c15L;
+            hash ^= hash >>> 29;
+        }
+        return hash;
+    }
+
+    private static void write(Writer writer, String lines) {
+        synchronized (writer) {
+            try {
+                writer.write(lines);
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, e.toString(), e);
+            }
+        }
+    }
+
+    private static class Result {
+        final int generations, population, period;
+
+        Result(int generations, int population, int period) {
+            this.generations = generations;
+            this.population = population;
+            this.period = period;
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package remote;
+
+import game.Field;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.SplittableRandom;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Streams a running Field to Viewers over TCP on the loopback interface.
+ *
+ * After every generation the simulation calls publish(), which copies the rows that changed
+ * since the last call (Field.getRowChanged) into a mirror of the board. That is the only
+ * work the simulation does for the clients, and it never waits on a socket.
+ *
+ * Every client has its own thread that sends when the client is ready: it copies the rows of its
+ * subscription that changed out of the mirror, and only that copy is made under the lock. Outside it,
+ * the rows are compared with the copy of what the client already has, and the words that differ
+ * are sent as a delta. A client that is slower than the simulation simply gets fewer, larger
+ * deltas, since everything that changed in between is coalesced into one XOR per word.
+ * Clients acknowledge every message they have applied, and at most MAX_IN_FLIGHT messages
+ * are sent ahead of the acknowledgements, so old deltas never pile up in socket buffers.
+ * A keyframe with all the cells of the subscription is sent when the subscription changes
+ * and every KEYFRAME_INTERVAL milliseconds.
+ *
+ * Messages from the server, after the HELLO with the size of the board:
+ * KEYFRAME generation, first word, first row, words, rows, then the packed rows.
+ * DELTA generation, number of changes, then row, word and XOR mask of every changed word.
+ * Clients send SUBSCRIBE x, y, width, height to choose the cells they want, and ACK for every message.
+ */
+public final class StreamServer implements AutoCloseable {
+
+    static final int MAGIC = 0x4c494645;
+    static final byte KEYFRAME = 'K';
+    static final byte DELTA = 'D';
+    static final int SUBSCRIBE = 1;
+    static final int ACK = 2;
+    static final int DEFAULT_PORT = 7070;
+    private static final Logger LOGGER = Logger.getLogger(StreamServer.class.getName());
+    private static final long KEYFRAME_INTERVAL = 5000;
+    private static final int MAX_IN_FLIGHT = 2;
+    private static final String USAGE = "Usage: serve <width> <height> [port] [density] [seed] [updates per second]";
+
+    private final Field field;
+    private final int width, height, wordsPerRow;
+    private final ServerSocket server;
+    private final Object lock = new Object();
+    private final long[] mirror;
+    private final long[] mirrorStamp;
+    private final CopyOnWriteArrayList<Client> clients;
+    private long sequence;
+    private int generation;
+    private int publishedUpTo;
+    private volatile boolean closed;
+
+    /**
+     * @param field The field to stream. Only the simulation thread may change it.
+     * @param port Port to listen on, 0 for any free port
+     */
+    public StreamServer(Field field, int port) throws IOException {
+        this.field = field;
+        width = field.getWidth();
+        height = field.getHeight();
+        wordsPerRow = field.getWordsPerRow();
+        mirror = field.getRows().clone();
+        mirrorStamp = new long[height];
+        clients = new CopyOnWriteArrayList<>();
+        server = new ServerSocket(port, 8, InetAddress.getLoopbackAddress());
+        publishedUpTo = field.getGeneration();
+        generation = field.getGeneration();
+    }
+
+    /**
+     * Start accepting viewers on a background thread.
+     */
+    public void start() {
+        Thread acceptor = new Thread(this::accept, "StreamServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Client client = new Client(server.accept());
+                clients.add(client);
+                client.start();
+            } catch (IOException e) {
+                if (!closed) LOGGER.log(Level.WARNING, e.toString());
+            }
+        }
+    }
+
+    /**
+     * Copy the rows that changed since the last call into the mirror. Call after every generation.
+     */
+    public void publish() {
+        long[] rows = field.getRows();
+        synchronized (lock) {
+            sequence++;
+            for (int y = 0; y < height; y++) {
+                if (field.getRowChanged(y) >= publishedUpTo) {
+                    System.arraycopy(rows, y * wordsPerRow, mirror, y * wordsPerRow, wordsPerRow);
+                    mirrorStamp[y] = sequence;
+                }
+            }
+            publishedUpTo = field.getGeneration();
+            generation = field.getGeneration();
+            lock.notifyAll();
+        }
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        for (Client client : clients) {
+            client.socket.close();
+        }
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * One connected viewer, with a thread that reads its subscriptions and one that sends to it.
+     */
+    private class Client {
+        final Socket socket;
+        final ByteArrayOutputStream buffer, changes;
+        final DataOutputStream message, changeMessage;
+        int firstWord, firstRow, words, rows;
+        long[] sent, snapshot;
+        // Rows of the subscription copied into snapshot for the next delta
+        int[] snapped;
+        long sentSequence;
+        long lastKeyframe;
+        boolean needsKeyframe;
+        int[] pending;
+        int inFlight;
+
+        Client(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            buffer = new ByteArrayOutputStream();
+            message = new DataOutputStream(buffer);
+            changes = new ByteArrayOutputStream();
+            changeMessage = new DataOutputStream(changes);
+            setRegion(0, 0, width, height);
+        }
+
+        void start() {
+            Thread sender = new Thread(this::send, "StreamServer-send");
+            Thread reader = new Thread(this::read, "StreamServer-read");
+            sender.setDaemon(true);
+            reader.setDaemon(true);
+            sender.start();
+            reader.start();
+        }
+
+        /**
+         * Use the cells from (x, y) to (x + w, y + h) as the subscription, widened to whole words.
+         */
+        private void setRegion(int x, int y, int w, int h) {
+            int x0 = Math.max(0, Math.min(x, width)), x1 = Math.max(x0, Math.min(x + w, width));
+            int y0 = Math.max(0, Math.min(y, height)), y1 = Math.max(y0, Math.min(y + h, height));
+            firstWord = x0 >>> 6;
+            words = x1 == x0 ? 0 : ((x1 - 1) >>> 6) - firstWord + 1;
+            firstRow = y0;
+            rows = y1 - y0;
+            sent = new long[words * rows];
+            snapshot = new long[words * rows];
+            snapped = new int[rows];
+            needsKeyframe = true;
+        }
+
+        private void read() {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+                while (!closed) {
+                    int type = in.readInt();
+                    if (type == ACK) {
+                        synchronized (lock) {
+                            inFlight--;
+                            lock.notifyAll();
+                        }
+                    } else if (type == SUBSCRIBE) {
+                        int[] region = { in.readInt(), in.readInt(), in.readInt(), in.readInt() };
+                        synchronized (lock) {
+                            pending = region;
+                            lock.notifyAll();
+                        }
+                    } else {
+                        throw new IOException("Unknown message " + type);
+                    }
+                }
+            } catch (IOException e) {
+                disconnect(e);
+            }
+        }
+
+        private void send() {
+            try (OutputStream out = new BufferedOutputStream(socket.getOutputStream())) {
+                DataOutputStream data = new DataOutputStream(out);
+                data.writeInt(MAGIC);
+                data.writeInt(width);
+                data.writeInt(height);
+                data.flush();
+                while (!closed) {
+                    buffer.reset();
+                    boolean keyframe;
+                    int generation, count;
+                    synchronized (lock) {
+                        while (!closed && (inFlight >= MAX_IN_FLIGHT || sequence == sentSequence && pending == null
+                                && System.currentTimeMillis() - lastKeyframe < KEYFRAME_INTERVAL)) {
+                            lock.wait(KEYFRAME_INTERVAL);
+                        }
+                        if (pending != null) {
+                            setRegion(pending[0], pending[1], pending[2], pending[3]);
+                            pending = null;
+                        }
+                        keyframe = needsKeyframe || System.currentTimeMillis() - lastKeyframe >= KEYFRAME_INTERVAL;
+                        count = keyframe ? snapshotAll() : snapshotChanged();
+                        generation = StreamServer.this.generation;
+                        sentSequence = sequence;
+                        inFlight++;
+                    }
+                    // Building and sending the message happen outside the lock, so publish() never waits for them
+                    if (keyframe) {
+                        writeKeyframe(generation);
+                    } else {
+                        writeDelta(generation, count);
+                    }
+                    buffer.writeTo(out);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                disconnect(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Copy every row of the subscription out of the mirror. Call while holding the lock.
+         *
+         * @return Number of rows copied
+         */
+        private int snapshotAll() {
+            for (int y = 0; y < rows; y++) {
+                System.arraycopy(mirror, (firstRow + y) * wordsPerRow + firstWord, snapshot, y * words, words);
+            }
+            return rows;
+        }
+
+        /**
+         * Copy the rows of the subscription that changed since the last message. Call while holding the lock.
+         *
+         * @return Number of rows copied, their indexes are in snapped
+         */
+        private int snapshotChanged() {
+            int count = 0;
+            for (int y = 0; y < rows; y++) {
+                if (mirrorStamp[firstRow + y] <= sentSequence) continue;
+                System.arraycopy(mirror, (firstRow + y) * wordsPerRow + firstWord, snapshot, y * words, words);
+                snapped[count++] = y;
+            }
+            return count;
+        }
+
+        private void writeKeyframe(int generation) throws IOException {
+            message.writeByte(KEYFRAME);
+            message.writeInt(generation);
+            message.writeInt(firstWord);
+            message.writeInt(firstRow);
+            message.writeInt(words);
+            message.writeInt(rows);
+            for (int i = 0; i < words * rows; i++) {
+                message.writeLong(snapshot[i]);
+            }
+            long[] old = sent;
+            sent = snapshot;
+            snapshot = old;
+            needsKeyframe = false;
+            lastKeyframe = System.currentTimeMillis();
+        }
+
+        private void writeDelta(int generation, int changedRows) throws IOException {
+            changes.reset();
+            int count = 0;
+            for (int i = 0; i < changedRows; i++) {
+                int y = snapped[i];
+                for (int w = y * words; w < (y + 1) * words; w++) {
+                    long change = snapshot[w] ^ sent[w];
+                    if (change != 0) {
+                        changeMessage.writeInt(firstRow + y);
+                        changeMessage.writeInt(firstWord + w - y * words);
+                        changeMessage.writeLong(change);
+                        sent[w] = snapshot[w];
+                        count++;
+                    }
+                }
+            }
+            message.writeByte(DELTA);
+            message.writeInt(generation);
+            message.writeInt(count);
+            changes.writeTo(message);
+        }
+
+        private void disconnect(IOException e) {
+            if (clients.remove(this) && !closed && !(e instanceof SocketException)) {
+                LOGGER.log(Level.INFO, "Viewer disconnected: " + e);
+            }
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Already closed
+            }
+        }
+    }
+
+    /**
+     * @param args width, height, then optionally port, density, seed and updates per second (0 for no limit)
+     *
+     * Simulate a random board without a window and stream it until the process is killed.
+     */
+    public static void run(String[] args) {
+        int width, height, port, ups;
+        double density;
+        long seed;
+        try {
+            width = Integer.parseInt(args[0]);
+            height = Integer.parseInt(args[1]);
+            port = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PORT;
+            density = args.length > 3 ? Double.parseDouble(args[3]) : 0.5;
+            seed = args.length > 4 ? Long.parseLong(args[4]) : System.nanoTime();
+            ups = args.length > 5 ? Integer.parseInt(args[5]) : 30;
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(USAGE);
+            return;
+        }
+
+        Field field = new Field(width, height);
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (random.nextDouble() < density) field.setTile(x, y, true);
+            }
+        }
+
+        try (StreamServer server = new StreamServer(field, port)) {
+            server.start();
+            System.out.println("Streaming on port " + server.getPort());
+            long updateTime = ups > 0 ? 1000000000L / ups : 0;
+            long next = System.nanoTime();
+            while (true) {
+                field.update();
+                server.publish();
+                next += updateTime;
+                long sleep = (next - System.nanoTime()) / 1000000;
+                if (sleep > 0) Thread.sleep(sleep);
+                else next = System.nanoTime();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, e.toString(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
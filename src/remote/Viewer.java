@@ -0,0 +1,251 @@
+package remote;
+
+import game.Field;
+import game.Renderer;
+import utils.MouseMode;
+import utils.Setting;
+import utils.Viewport;
+import utils.WindowUtils;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferStrategy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shows a board streamed by a StreamServer, without simulating anything itself.
+ *
+ * The board is rebuilt in a local Field from the keyframes and deltas, so the same
+ * Renderer, Viewport and mouse handling as in the game can be used. The viewer only
+ * subscribes to the cells on the screen, and subscribes again when the view is moved
+ * or zoomed. Move the view by dragging with the middle mouse button and zoom with the wheel.
+ */
+public final class Viewer extends Canvas {
+
+    private static final Logger LOGGER = Logger.getLogger(Viewer.class.getName());
+    private static final long FPS = 30;
+    private static final int MAX_TILE_SIZE = 8;
+    private static final String USAGE = "Usage: view [host] [port]";
+
+    private final Field field;
+    private final Viewport viewport;
+    private final Renderer renderer;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private volatile int generation;
+    private volatile boolean connected;
+    private int subscribedVersion;
+    private JFrame frame;
+
+    private Viewer(Socket socket) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        if (in.readInt() != StreamServer.MAGIC) throw new IOException("Not a stream server");
+        int width = in.readInt(), height = in.readInt();
+
+        Dimension maxSize = WindowUtils.getMaximumViewSize();
+        int fit = Math.min(maxSize.width / Math.max(1, width), maxSize.height / Math.max(1, height));
+        int tileSize = Math.max(1, Math.min(MAX_TILE_SIZE, fit));
+        Setting setting = new Setting(width, height, tileSize, tileSize > 2 ? 1 : 0);
+        field = new Field(width, height);
+        viewport = new Viewport(setting, maxSize);
+        renderer = new Renderer(field, viewport);
+        subscribedVersion = viewport.getVersion() - 1;
+        connected = true;
+
+        MouseMode mouse = new MouseMode(viewport) {
+            @Override
+            public void onWheel(int dir) {
+                mouseHelper.zoom(-dir);
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+    }
+
+    /**
+     * @param args Optionally host and port of the stream server
+     */
+    public static void run(String[] args) {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port;
+        try {
+            port = args.length > 1 ? Integer.parseInt(args[1]) : StreamServer.DEFAULT_PORT;
+        } catch (NumberFormatException e) {
+            System.err.println(USAGE);
+            return;
+        }
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            Viewer viewer = new Viewer(socket);
+            viewer.showFrame();
+            Thread receiver = new Thread(viewer::receive, "Viewer-receive");
+            receiver.setDaemon(true);
+            receiver.start();
+            viewer.loop();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, e.toString(), e);
+            WindowUtils.showNotice("Could not connect to " + host + ":" + port, e.toString());
+        }
+    }
+
+    private void showFrame() {
+        frame = new JFrame("Viewer");
+        frame.setResizable(false);
+        frame.setLayout(new BorderLayout());
+        frame.add(this, BorderLayout.CENTER);
+        frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+        frame.pack();
+        frame.setBounds(WindowUtils.getCenteredBound(frame.getPreferredSize()));
+        frame.setVisible(true);
+        setIgnoreRepaint(true);
+        createBufferStrategy(2);
+    }
+
+    /**
+     * Draw the board and keep the subscription in sync with the view until the connection is lost.
+     */
+    private void loop() {
+        long frameTime = 1000 / FPS;
+        while (connected) {
+            long frameStart = System.currentTimeMillis();
+            try {
+                if (viewport.getVersion() != subscribedVersion) {
+                    subscribe();
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, e.toString());
+                connected = false;
+            }
+            synchronized (field) {
+                renderer.drawBackground();
+                renderer.drawActiveTiles(field);
+            }
+            present();
+            frame.setTitle("Viewer - Generation " + generation);
+            long sleepTime = frameTime - (System.currentTimeMillis() - frameStart);
+            if (sleepTime > 0) {
+                try {
+                    Thread.sleep(sleepTime);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+        frame.setTitle("Viewer - Disconnected at generation " + generation);
+    }
+
+    private void subscribe() throws IOException {
+        subscribedVersion = viewport.getVersion();
+        Dimension screen = viewport.getScreen();
+        int x = viewport.getCellX(0), y = viewport.getCellY(0);
+        synchronized (out) {
+            out.writeInt(StreamServer.SUBSCRIBE);
+            out.writeInt(x);
+            out.writeInt(y);
+            out.writeInt(viewport.getCellX(screen.width - 1) - x + viewport.getCellsPerPixel());
+            out.writeInt(viewport.getCellY(screen.height - 1) - y + viewport.getCellsPerPixel());
+            out.flush();
+        }
+    }
+
+    /**
+     * Tell the server a message has been applied, so it may send the next one.
+     */
+    private void acknowledge() throws IOException {
+        synchronized (out) {
+            out.writeInt(StreamServer.ACK);
+            out.flush();
+        }
+    }
+
+    private void receive() {
+        try {
+            while (true) {
+                byte type = in.readByte();
+                if (type == StreamServer.KEYFRAME) {
+                    readKeyframe();
+                } else if (type == StreamServer.DELTA) {
+                    readDelta();
+                } else {
+                    throw new IOException("Unknown message " + type);
+                }
+                acknowledge();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.INFO, "Stream ended: " + e);
+            connected = false;
+        }
+    }
+
+    /**
+     * Replace the subscribed cells. Cells outside the subscription are left as they were.
+     */
+    private void readKeyframe() throws IOException {
+        int keyGeneration = in.readInt();
+        int firstWord = in.readInt(), firstRow = in.readInt();
+        int words = in.readInt(), rows = in.readInt();
+        long[] row = new long[words];
+        for (int y = 0; y < rows; y++) {
+            for (int w = 0; w < words; w++) {
+                row[w] = in.readLong();
+            }
+            synchronized (field) {
+                for (int w = 0; w < words; w++) {
+                    int index = (firstRow + y) * field.getWordsPerRow() + firstWord + w;
+                    flip(firstRow + y, firstWord + w, row[w] ^ field.getRows()[index]);
+                }
+            }
+        }
+        generation = keyGeneration;
+    }
+
+    private void readDelta() throws IOException {
+        int deltaGeneration = in.readInt();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int y = in.readInt(), w = in.readInt();
+            long change = in.readLong();
+            synchronized (field) {
+                flip(y, w, change);
+            }
+        }
+        generation = deltaGeneration;
+    }
+
+    /**
+     * Flip the cells of word w in row y whose bits are set in change.
+     */
+    private void flip(int y, int w, long change) {
+        while (change != 0) {
+            int x = (w << 6) + Long.numberOfTrailingZeros(change);
+            field.setTile(x, y, !field.getTile(x, y));
+            change &= change - 1;
+        }
+    }
+
+    private void present() {
+        BufferStrategy strategy = getBufferStrategy();
+        do {
+            do {
+                Graphics g = strategy.getDrawGraphics();
+                g.drawImage(renderer.getImage(), 0, 0, null);
+                g.dispose();
+            } while (strategy.contentsRestored());
+            strategy.show();
+        } while (strategy.contentsLost());
+        Toolkit.getDefaultToolkit().sync();
+    }
+
+    public Dimension getPreferredSize() {
+        return renderer.getDimension();
+    }
+}
@@ -8,18 +8,22 @@ import java.awt.*;
  *
  * Keeps track of mouse movements, positions and updates
  * This class is meant to translate what you see on the screen to what is usable by the program.
+ * The translation goes through the Viewport, so it follows zooming and panning.
  */
 public class MouseHelper {
 
-    private int cellSize;
+    private Viewport viewport;
+    private int pixelX, pixelY;
     private Vec2 pos;
     private Vec2 markPos;
+    private Rectangle markingBounds;
     private boolean marking;
 
-    public MouseHelper(Setting setting) {
-        this.cellSize = setting.tileSize + setting.gridWidth;
+    public MouseHelper(Viewport viewport) {
+        this.viewport = viewport;
         pos = new Vec2();
         markPos = new Vec2();
+        markingBounds = new Rectangle();
         marking = false;
     }
 
@@ -30,8 +34,35 @@ public class MouseHelper {
      * Turn pixel coordinates into field coordinates
      */
     public void setMousePosition(int x, int y) {
-        pos.x = x / cellSize;
-        pos.y = y / cellSize;
+        pixelX = x;
+        pixelY = y;
+        updatePos();
+    }
+
+    /**
+     * @param steps Number of levels to zoom in, negative to zoom out
+     *
+     * Zoom around the mouse, the cell under the mouse stays where it is.
+     */
+    public void zoom(int steps) {
+        viewport.zoom(steps, pixelX, pixelY);
+        updatePos();
+    }
+
+    /**
+     * @param x pixel x-coordinate the mouse was dragged to
+     * @param y pixel y-coordinate the mouse was dragged to
+     *
+     * Move the field along with the mouse.
+     */
+    public void pan(int x, int y) {
+        viewport.pan(x - pixelX, y - pixelY);
+        setMousePosition(x, y);
+    }
+
+    private void updatePos() {
+        pos.y = viewport.getCellY(pixelY);
+        pos.x = viewport.getCellX(pixelX, pos.y);
     }
 
     /**
@@ -39,7 +70,8 @@ public class MouseHelper {
      */
     public void startMarking() {
         marking = true;
-        markPos = pos.copy();
+        markPos.x = pos.x;
+        markPos.y = pos.y;
     }
 
     public void endMarking() {
@@ -47,15 +79,17 @@ public class MouseHelper {
     }
 
     /**
-     * @return Rectangle representing the marked area on the field
+     * @return Rectangle representing the marked area on the field.
+     * The same Rectangle is returned every time, so it is only valid until the next call.
      */
     public Rectangle getMarking() {
-        return new Rectangle(
+        markingBounds.setBounds(
                 Math.min(pos.x, markPos.x),
                 Math.min(pos.y, markPos.y),
                 Math.abs(pos.x - markPos.x) + 1,
                 Math.abs(pos.y - markPos.y) + 1
         );
+        return markingBounds;
     }
 
     public int getX() {
@@ -70,11 +104,17 @@ public class MouseHelper {
         return marking;
     }
 
-    public Vec2 getPos() {
-        return pos.copy();
+    /**
+     * @param into Vec2 to copy the field coordinates of the mouse into
+     */
+    public void getPos(Vec2 into) {
+        into.x = pos.x;
+        into.y = pos.y;
     }
 
     public void copyPosFrom(MouseHelper other) {
-        pos = other.getPos();
+        pixelX = other.pixelX;
+        pixelY = other.pixelY;
+        updatePos();
     }
 }
@@ -9,21 +9,24 @@ import java.awt.event.MouseWheelEvent;
  *
  * This is a wrapper class for MouseAdapter.
  * It simplifies making mouse handlers which interact with the game.
+ * Dragging with the middle button pans the view and Ctrl + scrolling zooms it, in every mode.
  */
 public abstract class MouseMode extends MouseAdapter {
 
     protected final MouseHelper mouseHelper;
     private boolean leftDown;
     private boolean rightDown;
+    private boolean middleDown;
     private boolean leftPressed;
     private boolean rightPressed;
     private boolean leftReleased;
     private boolean rightReleased;
 
-    protected MouseMode(Setting setting) {
-        mouseHelper = new MouseHelper(setting);
+    protected MouseMode(Viewport viewport) {
+        mouseHelper = new MouseHelper(viewport);
         leftDown = false;
         rightDown = false;
+        middleDown = false;
         leftPressed = false;
         rightPressed = false;
         leftReleased = false;
@@ -85,6 +88,9 @@ public abstract class MouseMode extends MouseAdapter {
             rightDown = true;
             rightPressed = true;
         }
+        else if (e.getButton() == MouseEvent.BUTTON2) {
+            middleDown = true;
+        }
         onPress(mouseHelper.getX(), mouseHelper.getY());
         leftPressed = false;
         rightPressed = false;
@@ -105,6 +111,9 @@ public abstract class MouseMode extends MouseAdapter {
             rightDown = false;
             rightReleased = true;
         }
+        else if (e.getButton() == MouseEvent.BUTTON2) {
+            middleDown = false;
+        }
         onRelease(mouseHelper.getX(), mouseHelper.getY());
         leftReleased = false;
         rightReleased = false;
@@ -115,8 +124,13 @@ public abstract class MouseMode extends MouseAdapter {
      * @param e MouseEvent
      *
      * Handle mouseDragged event and update mouseHelper position before calling onDrag.
+     * While the middle button is down the view is panned instead.
      */
     public final void mouseDragged(MouseEvent e) {
+        if (middleDown) {
+            mouseHelper.pan(e.getX(), e.getY());
+            return;
+        }
         mouseHelper.setMousePosition(e.getX(), e.getY());
         onDrag(mouseHelper.getX(), mouseHelper.getY());
     }
@@ -136,8 +150,13 @@ public abstract class MouseMode extends MouseAdapter {
      * @param e MouseEvent
      *
      * Handle mouseWheelMoved event and call onWheel with the scroll direction.
+     * With Ctrl held down the view is zoomed instead.
      */
     public final void mouseWheelMoved(MouseWheelEvent e) {
+        if (e.isControlDown()) {
+            mouseHelper.zoom(-e.getWheelRotation());
+            return;
+        }
         onWheel(e.getWheelRotation());
     }
 
@@ -12,11 +12,23 @@ public class Setting {
     public final int height;
     public final int tileSize;
     public final int gridWidth;
+    public final String rule;
+    public final Neighborhood neighborhood;
 
     public Setting(int width, int height, int tileSize, int gridWidth) {
+        this(width, height, tileSize, gridWidth, "B3/S23", Neighborhood.MOORE);
+    }
+
+    /**
+     * @param rule The rule to simulate, like B3/S23 or R5,C0,M1,S34..58,B34..45,NM
+     * @param neighborhood The neighborhood of the rule, unless the rule names one itself
+     */
+    public Setting(int width, int height, int tileSize, int gridWidth, String rule, Neighborhood neighborhood) {
         this.width = width;
         this.height = height;
         this.tileSize = tileSize;
         this.gridWidth = gridWidth;
+        this.rule = rule;
+        this.neighborhood = neighborhood;
     }
 }
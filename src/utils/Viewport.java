@@ -0,0 +1,256 @@
+package utils;
+
+import java.awt.*;
+
+/**
+ * Keeps track of which part of the field is on the screen and how big the cells are.
+ *
+ * Positions are kept in world pixels, the pixels of the whole field drawn at the current zoom.
+ * When zoomed in, a cell is tileSize pixels with gridWidth pixels between cells.
+ * When zoomed out past one pixel per cell, every pixel covers a square of
+ * cellsPerPixel * cellsPerPixel cells instead.
+ *
+ * Zoom level 0 is the tile size from the settings. Every level up doubles the tile size
+ * and every level down halves it, then doubles cellsPerPixel once a tile is one pixel.
+ *
+ * On hexagonal boards every odd row is drawn half a cell to the right, like bricks in a wall,
+ * so x-coordinates depend on the row. Zoomed out past one pixel per cell the rows are not moved.
+ *
+ * A viewport is changed by the thread that handles the mouse, while frames are drawn on another.
+ * Zooming, moving and copying are synchronized, so a frame can draw from a copy taken with copyTo
+ * that never holds half a zoom.
+ */
+public class Viewport {
+
+    private static final int MAX_TILE_SIZE = 64;
+    private static final int MAX_CELLS_PER_PIXEL = 1 << 12;
+
+    private final int fieldWidth, fieldHeight;
+    private final int defaultTileSize, defaultGridWidth;
+    private final boolean hexagonal;
+    private final Dimension screen;
+    private int level;
+    private int tileSize, gridWidth, cellsPerPixel;
+    private int x, y;
+    private int version;
+
+    /**
+     * @param setting Size of the field and cells, and the neighborhood the field is simulated with
+     * @param maxSize The largest size the view may have on the screen
+     */
+    public Viewport(Setting setting, Dimension maxSize) {
+        fieldWidth = setting.width;
+        fieldHeight = setting.height;
+        defaultTileSize = setting.tileSize;
+        defaultGridWidth = setting.gridWidth;
+        hexagonal = setting.neighborhood == Neighborhood.HEXAGONAL;
+        setLevel(0);
+        screen = new Dimension(
+                Math.min(getWorldWidth(), maxSize.width),
+                Math.min(getWorldHeight(), maxSize.height)
+        );
+        x = 0;
+        y = 0;
+    }
+
+    /**
+     * @param viewport Viewport to copy, which may be changed on another thread
+     */
+    public Viewport(Viewport viewport) {
+        fieldWidth = viewport.fieldWidth;
+        fieldHeight = viewport.fieldHeight;
+        defaultTileSize = viewport.defaultTileSize;
+        defaultGridWidth = viewport.defaultGridWidth;
+        hexagonal = viewport.hexagonal;
+        screen = viewport.screen;
+        viewport.copyTo(this);
+    }
+
+    /**
+     * @param into Viewport of the same field to set to the zoom and position of this one
+     */
+    public synchronized void copyTo(Viewport into) {
+        into.level = level;
+        into.tileSize = tileSize;
+        into.gridWidth = gridWidth;
+        into.cellsPerPixel = cellsPerPixel;
+        into.x = x;
+        into.y = y;
+        into.version = version;
+    }
+
+    /**
+     * @param screenX pixel x-coordinate on the screen
+     * @return field x-coordinate of the cell under the pixel
+     */
+    public int getCellX(int screenX) {
+        return toCell(x + screenX);
+    }
+
+    /**
+     * @param screenX pixel x-coordinate on the screen
+     * @param cellY field y-coordinate of the row
+     * @return field x-coordinate of the cell in the row under the pixel
+     */
+    public int getCellX(int screenX, int cellY) {
+        return toCell(x + screenX - getRowShift(cellY));
+    }
+
+    /**
+     * @param screenY pixel y-coordinate on the screen
+     * @return field y-coordinate of the cell under the pixel
+     */
+    public int getCellY(int screenY) {
+        return toCell(y + screenY);
+    }
+
+    /**
+     * @param cellX field x-coordinate
+     * @return pixel x-coordinate of the left edge of the cell on the screen
+     */
+    public int getScreenX(int cellX) {
+        return toWorld(cellX) - x;
+    }
+
+    /**
+     * @param cellX field x-coordinate
+     * @param cellY field y-coordinate of the row
+     * @return pixel x-coordinate of the left edge of the cell in the row on the screen
+     */
+    public int getScreenX(int cellX, int cellY) {
+        return toWorld(cellX) - x + getRowShift(cellY);
+    }
+
+    /**
+     * @param cellY field y-coordinate
+     * @return pixel y-coordinate of the top edge of the cell on the screen
+     */
+    public int getScreenY(int cellY) {
+        return toWorld(cellY) - y;
+    }
+
+    /**
+     * @param cells A number of cells
+     * @return The number of pixels that many cells cover, gridlines between them included
+     */
+    public int getLength(int cells) {
+        if (cellsPerPixel > 1) return Math.max(1, (cells + cellsPerPixel - 1) / cellsPerPixel);
+        return cells * getPitch() - gridWidth;
+    }
+
+    private int toCell(int world) {
+        if (cellsPerPixel > 1) return world * cellsPerPixel;
+        return Math.floorDiv(world, getPitch());
+    }
+
+    private int toWorld(int cell) {
+        if (cellsPerPixel > 1) return Math.floorDiv(cell, cellsPerPixel);
+        return cell * getPitch();
+    }
+
+    /**
+     * @param steps Number of levels to zoom in, negative to zoom out
+     * @param screenX pixel x-coordinate that should stay on the same cell
+     * @param screenY pixel y-coordinate that should stay on the same cell
+     */
+    public synchronized void zoom(int steps, int screenX, int screenY) {
+        int cellX = getCellX(screenX), cellY = getCellY(screenY);
+        int oldLevel = level;
+        setLevel(level + steps);
+        if (tileSize > MAX_TILE_SIZE || cellsPerPixel > MAX_CELLS_PER_PIXEL) {
+            setLevel(oldLevel);
+            return;
+        }
+        x = toWorld(cellX) - screenX;
+        y = toWorld(cellY) - screenY;
+        clamp();
+        version++;
+    }
+
+    /**
+     * @param dx Number of pixels to move the field to the right
+     * @param dy Number of pixels to move the field down
+     */
+    public synchronized void pan(int dx, int dy) {
+        int oldX = x, oldY = y;
+        x -= dx;
+        y -= dy;
+        clamp();
+        if (x != oldX || y != oldY) version++;
+    }
+
+    private void setLevel(int level) {
+        this.level = level;
+        if (level >= 0) {
+            tileSize = defaultTileSize << level;
+            cellsPerPixel = 1;
+        } else {
+            int halvings = 31 - Integer.numberOfLeadingZeros(defaultTileSize);
+            tileSize = Math.max(1, defaultTileSize >> -level);
+            cellsPerPixel = 1 << Math.max(0, -level - halvings);
+        }
+        gridWidth = level == 0 || tileSize > 2 * defaultGridWidth ? defaultGridWidth : 0;
+    }
+
+    /**
+     * Keep the view on the field. A field smaller than the view is kept in the top left corner.
+     */
+    private void clamp() {
+        x = Math.max(0, Math.min(x, getWorldWidth() - screen.width));
+        y = Math.max(0, Math.min(y, getWorldHeight() - screen.height));
+    }
+
+    /**
+     * @param cellY field y-coordinate of a row
+     * @return Number of pixels the row is drawn to the right of where the cells of even rows are
+     */
+    public int getRowShift(int cellY) {
+        return hexagonal && cellsPerPixel == 1 && (cellY & 1) != 0 ? getPitch() / 2 : 0;
+    }
+
+    public int getWorldWidth() {
+        return getLength(fieldWidth) + (fieldHeight > 1 ? getRowShift(1) : 0);
+    }
+
+    public int getWorldHeight() {
+        return getLength(fieldHeight);
+    }
+
+    public Dimension getScreen() {
+        return screen;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getGridWidth() {
+        return gridWidth;
+    }
+
+    /**
+     * @return Distance in pixels between the left edges of two neighboring cells
+     */
+    public int getPitch() {
+        return tileSize + gridWidth;
+    }
+
+    public int getCellsPerPixel() {
+        return cellsPerPixel;
+    }
+
+    /**
+     * @return A number that changes every time the view is zoomed or moved
+     */
+    public int getVersion() {
+        return version;
+    }
+}
@@ -35,6 +35,14 @@ public final class WindowUtils {
         JOptionPane.showMessageDialog(null, noticeString + "\n" + message);
     }
 
+    /**
+     * @return The largest size the game view can have and still fit on the screen with its frame
+     */
+    public static Dimension getMaximumViewSize() {
+        Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
+        return new Dimension(screenSize.width * 9 / 10, screenSize.height * 8 / 10);
+    }
+
     /**
      * @param windowDimension The dimension of the window to be centered
      * @return Rectangle representing the bounds of the window if it was centered
@@ -1,18 +1,21 @@
 package windows;
 
+import game.Rule;
+import utils.Neighborhood;
 import utils.Setting;
 import utils.InputTriple;
 import utils.WindowUtils;
 
 import javax.swing.*;
 import java.awt.*;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Created by Erik Mattfolk on 2017-04-28.
  * Refactored on 2019-02-27
  *
  * This is a prompt window that allows the user to input settings.
- * It is shown at the start of the game.
+ * It is shown at the start of the game, and awaitSetting() blocks until they are entered.
  */
 public class SettingsFrame extends JFrame {
 
@@ -21,20 +24,25 @@ public class SettingsFrame extends JFrame {
     private static final String DEFAULT_HEIGHT = "50";
     private static final String DEFAULT_TILE_SIZE = "15";
     private static final String DEFAULT_GRID_WIDTH = "0";
+    private static final String DEFAULT_RULE = "B3/S23";
 
     private JPanel left;
     private JPanel right;
     private JPanel bottomLeft;
     private JPanel bottomRight;
     private InputTriple[] triples;
-    private boolean done;
+    private JTextField ruleField;
+    private JComboBox<Neighborhood> neighborhoodBox;
+    private final CountDownLatch done;
+    private volatile Setting setting;
 
     public SettingsFrame() {
-        done = false;
+        done = new CountDownLatch(1);
         setLayout(new BorderLayout());
 
         setupPanels();
         setupInputs();
+        setupRule();
         setupButton();
 
         pack();
@@ -59,6 +67,9 @@ public class SettingsFrame extends JFrame {
      * | Left panel | Right  panel |           |
      * |            |              |           |
      * |---------------------------------------|
+     * |  Rule panel               | Neighbor- |
+     * |                           | hood      |
+     * |---------------------------------------|
      */
     private void setupPanels() {
         left = new JPanel();
@@ -75,6 +86,24 @@ public class SettingsFrame extends JFrame {
         right.add(bottomRight, BorderLayout.SOUTH);
     }
 
+    /**
+     * Put the rule input and the choice of neighborhood below the other inputs.
+     * The rule is text, so it is not an InputTriple.
+     */
+    private void setupRule() {
+        JPanel rulePanel = new JPanel();
+        rulePanel.setLayout(new BorderLayout());
+        JLabel ruleLabel = new JLabel(" Rule");
+        ruleLabel.setPreferredSize(LABEL_SIZE);
+        ruleField = new JTextField(DEFAULT_RULE);
+        ruleField.setPreferredSize(LABEL_SIZE);
+        rulePanel.add(ruleLabel, BorderLayout.WEST);
+        rulePanel.add(ruleField, BorderLayout.CENTER);
+        neighborhoodBox = new JComboBox<>(Neighborhood.values());
+        rulePanel.add(neighborhoodBox, BorderLayout.EAST);
+        add(rulePanel, BorderLayout.SOUTH);
+    }
+
     /**
      * Put four input fields onto the window.
      * The inputs are placed on the left hand side of the window from the top down.
@@ -116,20 +145,40 @@ public class SettingsFrame extends JFrame {
                     hasAllInputs = false;
                 }
             }
-            done = hasAllInputs;
+            try {
+                Rule.parse(ruleField.getText(), getNeighborhood());
+            } catch (IllegalArgumentException ignored) {
+                ruleField.setText("error");
+                hasAllInputs = false;
+            }
+            if (hasAllInputs) {
+                setting = getSetting();
+                done.countDown();
+            }
         });
     }
 
-    public boolean isDone() {
-        return done;
+    /**
+     * @return The settings, once they have been entered and the start button pressed
+     * @throws InterruptedException If the waiting thread is interrupted
+     */
+    public Setting awaitSetting() throws InterruptedException {
+        done.await();
+        return setting;
     }
 
-    public Setting getSetting() {
+    private Setting getSetting() {
         return new Setting(
                 triples[0].getValue(),
                 triples[1].getValue(),
                 triples[2].getValue(),
-                triples[3].getValue()
+                triples[3].getValue(),
+                ruleField.getText(),
+                getNeighborhood()
         );
     }
+
+    private Neighborhood getNeighborhood() {
+        return (Neighborhood) neighborhoodBox.getSelectedItem();
+    }
 }
@@ -0,0 +1,96 @@
+package game;
+
+import utils.MouseHelper;
+import utils.Setting;
+import utils.Vec2;
+import utils.Viewport;
+
+import java.awt.*;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that the game loop allocates nothing once it is warmed up, neither per generation nor per frame.
+ *
+ * Allocation is measured with com.sun.management.ThreadMXBean.getThreadAllocatedBytes for every
+ * thread, since the bands of a frame are drawn on the common pool. Reading the counters allocates
+ * a little itself, so that is measured first with nothing in between and taken off.
+ *
+ * There is no test framework in the project, so this is a plain program: it throws an
+ * AssertionError if anything allocates. Run it headless: java -Djava.awt.headless=true game.AllocationTest
+ */
+public class AllocationTest {
+
+    private static final int SIZE = 512;
+    private static final int WARMUP = 3000;
+    private static final int MEASURED = 500;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+        Field field = new Field(SIZE, SIZE);
+        Random random = new Random(1);
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                if (random.nextInt(3) == 0) field.setTile(x, y, true);
+            }
+        }
+        Viewport viewport = new Viewport(new Setting(SIZE, SIZE, 2, 1), new Dimension(SIZE, SIZE));
+        Renderer renderer = new Renderer(field, viewport);
+        MouseHelper mouse = new MouseHelper(viewport);
+        mouse.setMousePosition(40, 40);
+        mouse.startMarking();
+        mouse.setMousePosition(200, 120);
+        Shape glider = new Shape(Arrays.asList(new Vec2(1, 0), new Vec2(2, 1), new Vec2(0, 2), new Vec2(1, 2), new Vec2(2, 2)));
+        List<Rectangle> matches = PatternSearch.find(field, glider, false);
+
+        for (int i = 0; i < WARMUP; i++) {
+            field.update();
+            frame(renderer, field, mouse, glider, matches);
+        }
+
+        long[] ids = THREADS.getAllThreadIds();
+        long overhead = allocated(ids);
+        overhead = allocated(ids) - overhead;
+
+        long before = allocated(ids);
+        for (int i = 0; i < MEASURED; i++) {
+            field.update();
+        }
+        check("generation", allocated(ids) - before - overhead);
+
+        before = allocated(ids);
+        for (int i = 0; i < MEASURED; i++) {
+            frame(renderer, field, mouse, glider, matches);
+        }
+        check("frame", allocated(ids) - before - overhead);
+        System.out.println("AllocationTest passed");
+    }
+
+    private static void frame(Renderer renderer, Field field, MouseHelper mouse, Shape shape, List<Rectangle> matches) {
+        renderer.drawBackground();
+        renderer.drawShapeOutline(shape, 20, 20);
+        renderer.drawActiveTiles(field);
+        renderer.drawMarking(mouse);
+        renderer.drawMatches(matches);
+    }
+
+    /**
+     * @return Bytes allocated so far by the threads, the calling thread included
+     */
+    private static long allocated(long[] ids) {
+        long total = 0;
+        for (long bytes : THREADS.getThreadAllocatedBytes(ids)) {
+            if (bytes > 0) total += bytes;
+        }
+        return total;
+    }
+
+    private static void check(String what, long bytes) {
+        if (bytes > 0) throw new AssertionError(bytes / MEASURED + " bytes allocated per " + what);
+        System.out.println("0 bytes per " + what);
+    }
+}
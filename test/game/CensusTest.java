@@ -0,0 +1,65 @@
+package game;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Checks that the census counts oscillators that fall apart and pseudo still lifes as their objects.
+ *
+ * There is no test framework in the project, so this is a plain program: run it with assertions
+ * on, it throws an AssertionError for the first check that fails.
+ */
+public class CensusTest {
+
+    private static final int SIZE = 32;
+
+    public static void main(String[] args) {
+        // The beacon in its 6 cell phase is two blocks touching at a corner
+        check(census(4, 4, "oo..", "o...", "...o", "..oo"), "beacon", 1);
+        check(census(4, 4, "oo..", "oo..", "..oo", "..oo"), "beacon", 1);
+        // The other phase of the toad is two pieces that do not touch at all
+        check(census(4, 4, "..o.", "o..o", "o..o", ".o.."), "toad", 1);
+        check(census(4, 4, ".ooo", "ooo."), "toad", 1);
+        // Bi-block: two blocks one cell apart are a still life together, but also two still lifes
+        check(census(4, 4, "oo.oo", "oo.oo"), "block", 2);
+        // Two tubs touching at a corner
+        check(census(4, 4, ".o...", "o.o..", ".o.o.", "..o.o", "...o."), "tub", 2);
+        // Ship-tie: two ships touching at a corner
+        check(census(4, 4, "oo....", "o.o...", ".oo...", "...oo.", "...o.o", "....oo"), "ship", 2);
+        // A block that is near enough to a blinker to react is one object, far enough it is two
+        check(census(4, 4, "oo.o", "oo.o", "...o"), "block", 0);
+        Map<String, Integer> apart = census(4, 4, "oo......", "oo......", "........", "......o.", "......o.", "......o.");
+        check(apart, "block", 1);
+        check(apart, "blinker", 1);
+        // Strict still lifes are not split, even when they are made of pieces that only touch at corners
+        check(census(4, 4, "oo.", "o.o", ".oo"), "ship", 1);
+        checkTotal(census(4, 4, "oo.o", "o.oo"), 1);
+        check(census(4, 4, ".o.", "..o", "ooo"), "glider", 1);
+        System.out.println("CensusTest passed");
+    }
+
+    /**
+     * @param rows Pattern drawn with 'o' for live cells, placed at (x, y) on an empty board
+     * @return The counts of a census of the board
+     */
+    private static Map<String, Integer> census(int x, int y, String... rows) {
+        int wordsPerRow = (SIZE + 63) / 64;
+        long[] board = new long[wordsPerRow * SIZE];
+        for (int dy = 0; dy < rows.length; dy++) {
+            for (int dx = 0; dx < rows[dy].length(); dx++) {
+                if (rows[dy].charAt(dx) == 'o') board[(y + dy) * wordsPerRow + (x + dx >>> 6)] |= 1L << (x + dx);
+            }
+        }
+        return new TreeMap<>(Census.take(board, SIZE, SIZE, wordsPerRow).getCounts());
+    }
+
+    private static void checkTotal(Map<String, Integer> counts, int expected) {
+        int actual = counts.values().stream().mapToInt(Integer::intValue).sum();
+        if (actual != expected) throw new AssertionError("Expected " + expected + " objects but got " + counts);
+    }
+
+    private static void check(Map<String, Integer> counts, String name, int expected) {
+        int actual = counts.getOrDefault(name, 0);
+        if (actual != expected) throw new AssertionError("Expected " + expected + " " + name + " but got " + counts);
+    }
+}
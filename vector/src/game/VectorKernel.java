@@ -0,0 +1,96 @@
+package game;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import static jdk.incubator.vector.VectorOperators.AND_NOT;
+import static jdk.incubator.vector.VectorOperators.LSHL;
+import static jdk.incubator.vector.VectorOperators.LSHR;
+import static jdk.incubator.vector.VectorOperators.XOR;
+
+/**
+ * The row loops of BitField computed SPECIES.length() words at a time with the Vector API.
+ *
+ * This is the same arithmetic as ScalarKernel, lane by lane. The horizontal sums need the
+ * words to the left and right of every word, so those are loaded as two more vectors, one
+ * word off to each side. The first and last words of a row have no word on one side and,
+ * like the words that do not fill a whole vector, are done one at a time.
+ *
+ * Needs Java 17 or later and --add-modules jdk.incubator.vector, so it is compiled on its own
+ * and only loaded by BitField when the module is there.
+ */
+final class VectorKernel implements RowKernel {
+
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    @Override
+    public void horizontalSums(long[] row, int offset, int words, long[] ones, long[] twos) {
+        int lanes = SPECIES.length();
+        sums(row, offset, words, 0, ones, twos);
+        int w = 1;
+        // The last lane of a vector reads the word after it, which must still be in the row
+        for (; w + lanes < words; w += lanes) {
+            LongVector previous = LongVector.fromArray(SPECIES, row, offset + w - 1);
+            LongVector current = LongVector.fromArray(SPECIES, row, offset + w);
+            LongVector next = LongVector.fromArray(SPECIES, row, offset + w + 1);
+            LongVector left = current.lanewise(LSHL, 1).or(previous.lanewise(LSHR, 63));
+            LongVector right = current.lanewise(LSHR, 1).or(next.lanewise(LSHL, 63));
+            LongVector leftXorCurrent = left.lanewise(XOR, current);
+            leftXorCurrent.lanewise(XOR, right).intoArray(ones, w);
+            left.and(current).or(right.and(leftXorCurrent)).intoArray(twos, w);
+        }
+        for (; w < words; w++) {
+            sums(row, offset, words, w, ones, twos);
+        }
+    }
+
+    /**
+     * The horizontal sums of word w of the row alone.
+     */
+    private static void sums(long[] row, int offset, int words, int w, long[] ones, long[] twos) {
+        long previous = w > 0 ? row[offset + w - 1] : 0;
+        long current = row[offset + w];
+        long next = w + 1 < words ? row[offset + w + 1] : 0;
+        long left = (current << 1) | (previous >>> 63);
+        long right = (current >>> 1) | (next << 63);
+        ones[w] = left ^ current ^ right;
+        twos[w] = (left & current) | (right & (left ^ current));
+    }
+
+    @Override
+    public int nextRow(long[] above0, long[] above1, long[] mid0, long[] mid1, long[] below0, long[] below1,
+                       long[] center, int centerOffset, long[] out, int outOffset, int words, long lastWordMask) {
+        int lanes = SPECIES.length();
+        int w = 0;
+        // The last word is masked, so it is left to the scalar loop
+        for (; w + lanes < words; w += lanes) {
+            LongVector a0 = LongVector.fromArray(SPECIES, above0, w), a1 = LongVector.fromArray(SPECIES, above1, w);
+            LongVector b0 = LongVector.fromArray(SPECIES, mid0, w), b1 = LongVector.fromArray(SPECIES, mid1, w);
+            LongVector c0 = LongVector.fromArray(SPECIES, below0, w), c1 = LongVector.fromArray(SPECIES, below1, w);
+
+            LongVector ab0 = a0.lanewise(XOR, b0);
+            LongVector ones = ab0.lanewise(XOR, c0);
+            LongVector carry = a0.and(b0).or(c0.and(ab0));
+
+            LongVector x = a1.lanewise(XOR, b1), xBoth = a1.and(b1);
+            LongVector z = c1.lanewise(XOR, carry), zBoth = c1.and(carry);
+            LongVector twosIsOne = x.lanewise(XOR, z).lanewise(AND_NOT, xBoth.or(zBoth));
+            LongVector twosIsTwo = x.and(z).or(xBoth.lanewise(XOR, zBoth).lanewise(AND_NOT, x.or(z)));
+
+            LongVector alive = LongVector.fromArray(SPECIES, center, centerOffset + w);
+            ones.and(twosIsOne).or(twosIsTwo.and(alive).lanewise(AND_NOT, ones)).intoArray(out, outOffset + w);
+        }
+        int population = 0;
+        for (int i = 0; i < w; i++) {
+            population += Long.bitCount(out[outOffset + i]);
+        }
+        for (; w < words; w++) {
+            long next = ScalarKernel.nextWord(above0[w], above1[w], mid0[w], mid1[w], below0[w], below1[w],
+                    center[centerOffset + w]);
+            if (w == words - 1) next &= lastWordMask;
+            out[outOffset + w] = next;
+            population += Long.bitCount(next);
+        }
+        return population;
+    }
+}